@@ -135,7 +135,7 @@ public class AppLock {
             server = new Server(ss, token.getBytes("UTF-8"));
             server.start();
         } catch (BindException ex) {
-            Log.error(AppLock.class, "Connot bind port " + port + " for locking!", ex);
+            Log.error(AppLock.class, "Connot bind port {} for locking!", port, ex);
             binds++;
             if (binds < 5) {
                 startServer(true);
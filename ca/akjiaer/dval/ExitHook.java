@@ -103,8 +103,8 @@ public class ExitHook extends Thread implements Thread.UncaughtExceptionHandler
 
     @Override
     public void uncaughtException(Thread t, Throwable ex) {
-        Log.fatal(ExitHook.class, "Unhandled Exception! Thread '" + t.getName() +
-                  "' died! Rest in Peace.", ex);
+        Log.fatal(ExitHook.class, "Unhandled Exception! Thread '{}' died! Rest in Peace.",
+                  t.getName(), ex);
         System.exit(1);
     }
 
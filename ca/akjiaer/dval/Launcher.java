@@ -16,13 +16,23 @@
 
 package ca.akjiaer.dval;
 
+import ca.akjiaer.dval.log.ChannelSink;
+import ca.akjiaer.dval.log.EventRing;
+import ca.akjiaer.dval.log.RollingSink;
+import ca.akjiaer.dval.log.Sink;
+import ca.akjiaer.dval.log.Suppressor;
 import ca.akjiaer.dval.util.Config;
 import ca.akjiaer.dval.util.Version;
 import java.util.regex.Pattern;
+import ca.akjiaer.dval.mod.ClassProfile;
+import ca.akjiaer.dval.mod.Module;
 import ca.akjiaer.dval.mod.ModuleLoader;
+import ca.akjiaer.dval.mod.ModuleMetrics;
+import ca.akjiaer.dval.mod.ModuleWatcher;
 import ca.akjiaer.dval.util.Manifest;
 import ca.akjiaer.dval.util.StringMap;
 import java.io.File;
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.jar.JarFile;
@@ -60,12 +70,69 @@ public class Launcher {
 
         /* Logging */
         if ((s = values.get("App-Log-File")) != null && !s.isEmpty()) {
-            Log.setLogFile(s);
+            setLogFile(values);
+        }
+        if ((s = values.get("App-Log-Console-Level")) != null && !s.isEmpty()) {
+            if (s.equalsIgnoreCase("off")) {
+                Log.setConsole(null);
+            } else {
+                try {
+                    Log.getConsole().setLevel(Log.parseLevel(s));
+                } catch (IllegalArgumentException ex) {
+                    Log.error(Launcher.class, "Invalid App-Log-Console-Level '{}'!", s);
+                }
+            }
+        }
+        if ((s = values.get("App-Log-Binary")) != null && !s.isEmpty()) {
+            int textLevel = Log.LEVEL_TRACE;
+            try {
+                final String level = values.get("App-Log-Binary-Text-Level");
+                if (level != null && !level.isEmpty()) {
+                    textLevel = Log.parseLevel(level);
+                }
+            } catch (IllegalArgumentException ex) {
+                Log.error(Launcher.class, "Invalid App-Log-Binary-Text-Level!", ex);
+            }
+            Log.setBinaryLog(new File(s), textLevel);
+        }
+        if ((s = values.get("App-Log-Async")) != null && !s.isEmpty()) {
+            try {
+                Log.setAsync(Integer.parseInt(s),
+                             EventRing.parsePolicy(values.get("App-Log-Async-Policy")));
+            } catch (IllegalArgumentException ex) {
+                Log.error(Launcher.class, "Invalid asynchronous logging setup!", ex);
+            }
+        }
+
+        if ((s = values.get("App-Log-Recorder")) != null && !s.isEmpty()) {
+            final String crashFile = values.get("App-Log-Crash-File");
+            try {
+                Log.setRecorder(Integer.parseInt(s), new File(crashFile == null
+                        || crashFile.isEmpty() ? "crash.log" : crashFile));
+            } catch (IllegalArgumentException ex) {
+                Log.error(Launcher.class, "Invalid App-Log-Recorder value '{}'!", s);
+            }
+        }
+        if (values.contains("App-Log-Dedup") || values.contains("App-Log-Rate")
+                || values.contains("App-Log-Sample")) {
+            setSuppressor(values);
         }
 
         /* Arguments */
         parseArgs(args);
 
+        /* Log Levels: "<class or package>=<level>", separated by commas */
+        if ((s = values.get("App-Log-Levels")) != null && !s.isEmpty()) {
+            for (String level : Pattern.compile("[,\\s]+").split(s, 0)) {
+                final int i = level.indexOf('=');
+                if (i > 0) {
+                    Config.sys.put(Config.LOG_LEVEL + '.' + level.substring(0, i).trim(),
+                                   level.substring(i + 1).trim());
+                }
+            }
+        }
+        Log.setLogLevels(Config.sys);
+
         /* APP Name */
         if ((s = values.get("App-Name")) == null || s.isEmpty()) {
             Config.sys.put(Config.APP_NAME, "Unknown");
@@ -105,10 +172,171 @@ public class Launcher {
             Log.error(Launcher.class, "No entry for module loading found!");
             System.exit(1);
         } else {
-            ModuleLoader.load(Pattern.compile(":").split(s, 0));
+            int threads = 1;
+            final String t = values.get("App-Modules-Threads");
+            if (t != null && !t.isEmpty()) {
+                try {
+                    threads = Integer.parseInt(t.trim());
+                } catch (NumberFormatException ex) {
+                    Log.error(Launcher.class, "Invalid App-Modules-Threads value '{}'!", t);
+                }
+            }
+            final String c = values.get("App-Modules-Cache");
+            if (c != null && !c.isEmpty()) {
+                ModuleLoader.setCache(new File(c),
+                        "true".equalsIgnoreCase(values.get("App-Modules-Cache-Verify")));
+            }
+            if ("true".equalsIgnoreCase(values.get("App-Modules-Metrics"))) {
+                ModuleMetrics.setEnabled(true);
+            }
+            setClassProfile(values);
+            final String rc = values.get("App-Modules-Resource-Cache");
+            if (rc != null && !rc.isEmpty()) {
+                try {
+                    final String rt = values.get("App-Modules-Resource-Threshold");
+                    Module.setResourceCache(RollingSink.parseSize(rc), rt == null
+                            || rt.isEmpty() ? 256 << 10 : (int) RollingSink.parseSize(rt));
+                } catch (IllegalArgumentException ex) {
+                    Log.error(Launcher.class, "Invalid resource cache setup!", ex);
+                }
+            }
+            ModuleLoader.load(threads, Pattern.compile(":").split(s, 0));
+            if ("true".equalsIgnoreCase(values.get("App-Modules-Watch"))) {
+                ModuleWatcher.start();
+            }
+        }
+    }
+
+    /**
+     * Preloads the classes of the last run and records the current run in
+     * the profile of App-Modules-Profile (default "classes.profile"), if
+     * App-Modules-Preload is "true" or the preload mode (--preload) is set.
+     * In training mode (--train) the defined classes are written to the
+     * class list of App-Class-List (default "classes.lst") on exit; later
+     * runs preload the classes of the class list, if it exists.
+     */
+    private static void setClassProfile(final StringMap values) {
+        if ("true".equalsIgnoreCase(values.get("App-Modules-Preload"))) {
+            Config.sys.set(Config.MODE_PRELOAD, true);
+        }
+        String s = values.get("App-Modules-Profile");
+        ClassProfile.setFile(new File(s == null || s.isEmpty() ? "classes.profile" : s));
+        s = values.get("App-Class-List");
+        ClassProfile.setClassList(new File(s == null || s.isEmpty() ? "classes.lst" : s));
+        if (ClassProfile.isEnabled()) {
+            ExitHook.add(new Runnable() {
+                @Override
+                public void run() {
+                    ClassProfile.write();
+                }
+            });
+        }
+    }
+
+    /**
+     * Sets up the log file from the manifest entries App-Log-File,
+     * App-Log-Sync ("never", "error" or an interval in milliseconds) and
+     * App-Log-Max-Size, App-Log-Rotate ("daily"), App-Log-Keep for rolling
+     * and App-Log-Format ("text" or "json"), App-Log-File-Level.
+     */
+    private static void setLogFile(final StringMap values) {
+        final File file = new File(values.get("App-Log-File"));
+        int sync = ChannelSink.SYNC_NEVER;
+        long interval = 0;
+        String s = values.get("App-Log-Sync");
+        if (s != null && s.equalsIgnoreCase("error")) {
+            sync = ChannelSink.SYNC_ERROR;
+        } else if (s != null && !s.isEmpty() && !s.equalsIgnoreCase("never")) {
+            try {
+                interval = Long.parseLong(s);
+            } catch (NumberFormatException ex) {}
+            if (interval > 0) {
+                sync = ChannelSink.SYNC_INTERVAL;
+            } else {
+                Log.error(Launcher.class, "Invalid App-Log-Sync value '{}'!", s);
+            }
+        }
+
+        long maxSize = 0;
+        int keep = 7;
+        try {
+            maxSize = RollingSink.parseSize(values.get("App-Log-Max-Size"));
+            if ((s = values.get("App-Log-Keep")) != null && !s.isEmpty()) {
+                keep = Integer.parseInt(s);
+            }
+        } catch (NumberFormatException ex) {
+            Log.error(Launcher.class, "Invalid log rolling setup!", ex);
+        }
+        final boolean daily = "daily".equalsIgnoreCase(values.get("App-Log-Rotate"));
+        final Sink sink;
+        try {
+            if (maxSize > 0 || daily) {
+                sink = new RollingSink(file, sync, interval, maxSize, daily, keep);
+            } else {
+                sink = new ChannelSink(file, sync, interval);
+            }
+        } catch (IOException ex) {
+            Log.error(Launcher.class, "Cannot create log file!", ex);
+            return;
+        }
+        sink.setJson("json".equalsIgnoreCase(values.get("App-Log-Format")));
+        if ((s = values.get("App-Log-File-Level")) != null && !s.isEmpty()) {
+            try {
+                sink.setLevel(Log.parseLevel(s));
+            } catch (IllegalArgumentException ex) {
+                Log.error(Launcher.class, "Invalid App-Log-File-Level '{}'!", s);
+            }
+        }
+        Log.setLogFile(sink);
+    }
+
+    /**
+     * Sets up the suppression of repeated events from the manifest entries
+     * App-Log-Dedup (window in milliseconds), App-Log-Rate
+     * ("&lt;level&gt;=&lt;events per second&gt;[/&lt;burst&gt;]") and App-Log-Sample
+     * ("&lt;level&gt;=&lt;probability&gt;"), the latter two separated by commas.
+     */
+    private static void setSuppressor(final StringMap values) {
+        final Suppressor suppressor = Log.newSuppressor();
+        String s;
+        try {
+            if ((s = values.get("App-Log-Dedup")) != null && !s.isEmpty()) {
+                suppressor.setWindow(Long.parseLong(s.trim()));
+            }
+            if ((s = values.get("App-Log-Rate")) != null && !s.isEmpty()) {
+                for (String rate : Pattern.compile("[,\\s]+").split(s.trim(), 0)) {
+                    final int i = rate.indexOf('=');
+                    final int j = rate.indexOf('/', i + 1);
+                    final double perSecond = Double.parseDouble(
+                            rate.substring(i + 1, j > 0 ? j : rate.length()));
+                    final int burst = j > 0 ? Integer.parseInt(rate.substring(j + 1))
+                                            : Math.max(1, (int) perSecond);
+                    suppressor.setRate(Log.parseLevel(rate.substring(0, Math.max(i, 0))),
+                                       perSecond, burst);
+                }
+            }
+            if ((s = values.get("App-Log-Sample")) != null && !s.isEmpty()) {
+                for (String sample : Pattern.compile("[,\\s]+").split(s.trim(), 0)) {
+                    final int i = sample.indexOf('=');
+                    suppressor.setSampling(Log.parseLevel(sample.substring(0, Math.max(i, 0))),
+                                           Double.parseDouble(sample.substring(i + 1)));
+                }
+            }
+        } catch (IllegalArgumentException ex) {
+            Log.error(Launcher.class, "Invalid log suppression setup!", ex);
+            return;
         }
+        Log.setSuppressor(suppressor);
     }
 
+    /**
+     * Toggles the modes given as long options, e.g. <code>--train</code>,
+     * or by their first character in short options, e.g. <code>-dt</code>:
+     * <code>-d</code> debug, <code>-e</code> experimental, <code>-n</code>
+     * no update, <code>-t</code> training, <code>-p</code> preload. A short
+     * option toggles every mode of its character, so further options
+     * (<code>arg0</code>, ...) should not start with one of them.
+     */
     @Deprecated
     private static void parseArgs(final String[] args) {
         Config.sys.put(Config.MODE_UPDATE, null);
@@ -119,6 +347,8 @@ public class Launcher {
         arglist.add(new String[] {"d", Config.MODE_DEBUG});
         arglist.add(new String[] {"e", Config.MODE_EXPERIMENTAL});
         arglist.add(new String[] {"no-update", Config.MODE_UPDATE});
+        arglist.add(new String[] {"train", Config.MODE_TRAINING});
+        arglist.add(new String[] {"preload", Config.MODE_PRELOAD});
         while ((v = Config.sys.get(k = "arg" + i++)) != null) {
             arglist.add(Pattern.compile(":").split(v, 0));
             Config.sys.remove(k);
@@ -16,19 +16,36 @@
 
 package ca.akjiaer.dval;
 
+import ca.akjiaer.dval.log.BinarySink;
+import ca.akjiaer.dval.log.ChannelSink;
+import ca.akjiaer.dval.log.ConsoleSink;
+import ca.akjiaer.dval.log.EventHandler;
+import ca.akjiaer.dval.log.EventRing;
+import ca.akjiaer.dval.log.FlightRecorder;
+import ca.akjiaer.dval.log.JsonLayout;
+import ca.akjiaer.dval.log.Layout;
+import ca.akjiaer.dval.log.LevelMap;
+import ca.akjiaer.dval.log.LogEvent;
+import ca.akjiaer.dval.log.Sink;
+import ca.akjiaer.dval.log.Suppressor;
+import ca.akjiaer.dval.log.TextLayout;
+import ca.akjiaer.dval.util.Config;
+import ca.akjiaer.dval.util.StringMap;
 import ca.akjiaer.dval.util.Version;
-import java.io.BufferedOutputStream;
+import java.io.BufferedWriter;
 import java.io.File;
-import java.io.FileDescriptor;
 import java.io.FileOutputStream;
-import java.io.FileWriter;
 import java.io.IOException;
-import java.io.PrintStream;
-import java.io.PrintWriter;
-import java.io.StringWriter;
-import java.text.SimpleDateFormat;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Date;
-import java.util.regex.Pattern;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.function.Supplier;
 
 /**
  * @author Stefan Neubert
@@ -44,11 +61,19 @@ public class Log {
     public final static int LEVEL_ERROR = 4;
     public final static int LEVEL_FATAL = 5;
 
+    private final static String BREAK_LINE = System.getProperty("line.separator");
     private final static Log log = new Log();
     public static int currentLevel = 2;
+    /** Levels of classes and packages, null if none is configured */
+    private static volatile LevelMap levels;
 
     protected static void close() {
-        log.closeFileWriter();
+        final Suppressor s = log.suppressor;
+        if (s != null) {
+            s.flush();
+        }
+        log.stopAsync();
+        log.closeSinks();
     }
 
     public static int getLogLevel() {
@@ -56,174 +81,697 @@ public class Log {
     }
 
     public static void setLogFile(final String filename) {
-        log.openFileWriter(new File(filename));
+        setLogFile(new File(filename));
     }
 
     public static void setLogFile(final File file) {
-        log.openFileWriter(file);
+        setLogFile(file, ChannelSink.SYNC_NEVER, 0);
+    }
+
+    /**
+     * @param sync one of the <code>ChannelSink.SYNC_*</code> constants
+     * @param interval milliseconds between two syncs, only used with
+     *                 <code>SYNC_INTERVAL</code>
+     */
+    public static void setLogFile(final File file, final int sync, final long interval) {
+        try {
+            log.setFile(new ChannelSink(file, sync, interval));
+        } catch (IOException ex) {
+            Log.error(Log.class, "Cannot create log file!", ex);
+        }
+    }
+
+    /**
+     * Uses the given sink as log file, e.g. a <code>RollingSink</code>. The
+     * previous one is closed.
+     */
+    public static void setLogFile(final Sink sink) {
+        log.setFile(sink);
+    }
+
+    /**
+     * @return sink which writes to standard error, null if there is none
+     */
+    public static Sink getConsole() {
+        return log.console;
+    }
+
+    /**
+     * Replaces the console sink, null switches console output off. The
+     * previous one is closed.
+     */
+    public static void setConsole(final Sink sink) {
+        log.setConsoleSink(sink);
+    }
+
+    /**
+     * Adds a further sink to the chain, e.g. a <code>MemorySink</code>. Its
+     * level and layout are set at the sink itself.
+     */
+    public static void addSink(final Sink sink) {
+        log.replace(null, sink);
+    }
+
+    /**
+     * Removes the sink from the chain without closing it.
+     */
+    public static void removeSink(final Sink sink) {
+        log.replace(sink, null);
+    }
+
+    /**
+     * Writes every event unformatted to a binary log, see
+     * <code>BinaryLogDecoder</code> to read it. Only events with at least
+     * the given text level are formatted for console and log file as well.
+     * A null file switches the binary log off.
+     */
+    public static void setBinaryLog(final File file, final int textLevel) {
+        try {
+            log.setBinary(file == null ? null : new BinarySink(file), textLevel);
+        } catch (IOException ex) {
+            Log.error(Log.class, "Cannot create binary log file!", ex);
+        }
     }
 
     public static void setLogLevel(final int level) {
         currentLevel = level;
     }
 
+    /**
+     * Sets the levels of single classes and packages. Every key
+     * <code>log.level.&lt;class or package&gt;</code> of the map sets the
+     * level of this class or package, <code>log.level</code> itself sets the
+     * current level. Classes without an entry use the current level.
+     *
+     * @see #parseLevel(String)
+     */
+    public static void setLogLevels(final StringMap config) {
+        final Map<String, Integer> map = new HashMap();
+        final String prefix = Config.LOG_LEVEL + '.';
+        for (StringMap.Entry e : config) {
+            final String key = e.getKey();
+            try {
+                if (key.equals(Config.LOG_LEVEL)) {
+                    currentLevel = parseLevel(e.getValue());
+                } else if (key.startsWith(prefix) && key.length() > prefix.length()) {
+                    map.put(key.substring(prefix.length()), parseLevel(e.getValue()));
+                }
+            } catch (IllegalArgumentException ex) {
+                Log.error(Log.class, "Invalid log level for '{}'!", key);
+            }
+        }
+        levels = map.isEmpty() ? null : new LevelMap(map);
+    }
+
+    /**
+     * @param s level name (trace, debug, info, warning, error, fatal) or number
+     */
+    public static int parseLevel(final String s) {
+        if (s != null) {
+            final String n = s.trim().toLowerCase(Locale.ENGLISH);
+            if (n.equals("trace"))   return LEVEL_TRACE;
+            if (n.equals("debug"))   return LEVEL_DEBUG;
+            if (n.equals("info"))    return LEVEL_INFO;
+            if (n.equals("warn") || n.equals("warning")) return LEVEL_WARNING;
+            if (n.equals("error"))   return LEVEL_ERROR;
+            if (n.equals("fatal") || n.equals("critical")) return LEVEL_FATAL;
+            if (n.length() == 1 && n.charAt(0) >= '0' && n.charAt(0) <= '5') {
+                return n.charAt(0) - '0';
+            }
+        }
+        throw new IllegalArgumentException("Unknown log level '" + s + "'!");
+    }
+
+    /**
+     * Use it to avoid building expensive messages which would be discarded.
+     *
+     * @param c logging class, null for the current level
+     */
+    public static boolean isEnabled(final Class c, final int level) {
+        final LevelMap m = levels;
+        if (m == null || c == null) {
+            return currentLevel <= level;
+        }
+        final int l = m.get(c);
+        return (l < 0 ? currentLevel : l) <= level;
+    }
+
+    /**
+     * @return true, if an event has to be published, i.e. it is enabled or
+     *         the flight recorder is running
+     */
+    private static boolean isWanted(final Class c, final int level) {
+        return log.recorder != null || isEnabled(c, level);
+    }
+
+    /**
+     * Switches to asynchronous logging: events are put into a ring buffer
+     * and written by a background thread. A capacity below 1 switches back
+     * to synchronous logging.
+     *
+     * @param policy one of the <code>EventRing.POLICY_*</code> constants,
+     *               used if the buffer is full
+     */
+    public static void setAsync(final int capacity, final int policy) {
+        log.stopAsync();
+        if (capacity > 0) {
+            log.ring = new EventRing(log.writer, capacity, policy);
+        }
+    }
+
+    public static boolean isAsync() {
+        return log.ring != null;
+    }
+
+    /**
+     * Starts the flight recorder, which keeps the last events of every level,
+     * even of disabled ones. It is written to the crash file when a FATAL
+     * event is published. A capacity below 1 stops it.
+     */
+    public static void setRecorder(final int capacity, final File crashFile) {
+        if (capacity > 0 && crashFile == null) {
+            throw new IllegalArgumentException("Crash file cannot be null!");
+        }
+        log.crashFile = crashFile;
+        log.recorder = capacity > 0 ? new FlightRecorder(capacity) : null;
+    }
+
+    /**
+     * Writes the events kept by the flight recorder to the crash file.
+     */
+    public static void dumpRecorder() {
+        log.dump();
+    }
+
+    /**
+     * @return a new suppressor, which reports to this log
+     * @see #setSuppressor(Suppressor)
+     */
+    public static Suppressor newSuppressor() {
+        return new Suppressor(log.reporter);
+    }
+
+    /**
+     * Filters every event below FATAL by the given suppressor before it is
+     * built or formatted. Pending counts of the previous one are reported,
+     * null switches suppression off.
+     */
+    public static void setSuppressor(final Suppressor suppressor) {
+        final Suppressor old = log.suppressor;
+        log.suppressor = suppressor;
+        if (old != null) {
+            old.flush();
+        }
+    }
+
  /* ------------------------------- Publish -------------------------------- */
 
-    public static void trace(final Class c, String msg) {
-        if (currentLevel <= LEVEL_TRACE) {
-            log.publish(LEVEL_TRACE, c, msg, null);
+    /*
+     * Every level has a plain, a template and a supplier variant. A template
+     * contains {} placeholders, which are replaced by the arguments in order.
+     * If the last argument is a Throwable without placeholder, it is logged
+     * with its stack trace. Templates and suppliers are evaluated not until
+     * the event is written, in asynchronous mode by the writer thread.
+     */
+
+    public static void trace(final Class c, final String msg) {
+        if (isWanted(c, LEVEL_TRACE)) {
+            log.publish(LEVEL_TRACE, c, msg, null, null, null);
+        }
+    }
+
+    public static void trace(final Class c, final String fmt, final Object arg) {
+        if (isWanted(c, LEVEL_TRACE)) {
+            log.publish(LEVEL_TRACE, c, fmt, new Object[] {arg});
+        }
+    }
+
+    public static void trace(final Class c, final String fmt, final Object arg1,
+                             final Object arg2) {
+        if (isWanted(c, LEVEL_TRACE)) {
+            log.publish(LEVEL_TRACE, c, fmt, new Object[] {arg1, arg2});
+        }
+    }
+
+    public static void trace(final Class c, final String fmt, final Object... args) {
+        if (isWanted(c, LEVEL_TRACE)) {
+            log.publish(LEVEL_TRACE, c, fmt, args);
+        }
+    }
+
+    public static void trace(final Class c, final Supplier<String> msg) {
+        if (isWanted(c, LEVEL_TRACE)) {
+            log.publish(LEVEL_TRACE, c, null, null, msg, null);
+        }
+    }
+
+    public static void debug(final Class c, final String msg) {
+        if (isWanted(c, LEVEL_DEBUG)) {
+            log.publish(LEVEL_DEBUG, c, msg, null, null, null);
         }
     }
 
-    public static void debug(final Class c, String msg) {
-        if (currentLevel <= LEVEL_DEBUG) {
-            log.publish(LEVEL_DEBUG, c, msg, null);
+    public static void debug(final Class c, final String fmt, final Object arg) {
+        if (isWanted(c, LEVEL_DEBUG)) {
+            log.publish(LEVEL_DEBUG, c, fmt, new Object[] {arg});
+        }
+    }
+
+    public static void debug(final Class c, final String fmt, final Object arg1,
+                             final Object arg2) {
+        if (isWanted(c, LEVEL_DEBUG)) {
+            log.publish(LEVEL_DEBUG, c, fmt, new Object[] {arg1, arg2});
+        }
+    }
+
+    public static void debug(final Class c, final String fmt, final Object... args) {
+        if (isWanted(c, LEVEL_DEBUG)) {
+            log.publish(LEVEL_DEBUG, c, fmt, args);
+        }
+    }
+
+    public static void debug(final Class c, final Supplier<String> msg) {
+        if (isWanted(c, LEVEL_DEBUG)) {
+            log.publish(LEVEL_DEBUG, c, null, null, msg, null);
         }
     }
 
     public static void info(final Class c, final String msg) {
-        if (currentLevel <= LEVEL_INFO) {
-            log.publish(LEVEL_INFO, c, msg, null);
+        if (isWanted(c, LEVEL_INFO)) {
+            log.publish(LEVEL_INFO, c, msg, null, null, null);
+        }
+    }
+
+    public static void info(final Class c, final String fmt, final Object arg) {
+        if (isWanted(c, LEVEL_INFO)) {
+            log.publish(LEVEL_INFO, c, fmt, new Object[] {arg});
+        }
+    }
+
+    public static void info(final Class c, final String fmt, final Object arg1,
+                            final Object arg2) {
+        if (isWanted(c, LEVEL_INFO)) {
+            log.publish(LEVEL_INFO, c, fmt, new Object[] {arg1, arg2});
+        }
+    }
+
+    public static void info(final Class c, final String fmt, final Object... args) {
+        if (isWanted(c, LEVEL_INFO)) {
+            log.publish(LEVEL_INFO, c, fmt, args);
+        }
+    }
+
+    public static void info(final Class c, final Supplier<String> msg) {
+        if (isWanted(c, LEVEL_INFO)) {
+            log.publish(LEVEL_INFO, c, null, null, msg, null);
         }
     }
 
     public static void warn(final Class c, final String msg) {
-        if (currentLevel <= LEVEL_WARNING) {
-            log.publish(LEVEL_WARNING, c, msg, null);
+        if (isWanted(c, LEVEL_WARNING)) {
+            log.publish(LEVEL_WARNING, c, msg, null, null, null);
+        }
+    }
+
+    public static void warn(final Class c, final String fmt, final Object arg) {
+        if (isWanted(c, LEVEL_WARNING)) {
+            log.publish(LEVEL_WARNING, c, fmt, new Object[] {arg});
+        }
+    }
+
+    public static void warn(final Class c, final String fmt, final Object arg1,
+                            final Object arg2) {
+        if (isWanted(c, LEVEL_WARNING)) {
+            log.publish(LEVEL_WARNING, c, fmt, new Object[] {arg1, arg2});
+        }
+    }
+
+    public static void warn(final Class c, final String fmt, final Object... args) {
+        if (isWanted(c, LEVEL_WARNING)) {
+            log.publish(LEVEL_WARNING, c, fmt, args);
+        }
+    }
+
+    public static void warn(final Class c, final Supplier<String> msg) {
+        if (isWanted(c, LEVEL_WARNING)) {
+            log.publish(LEVEL_WARNING, c, null, null, msg, null);
         }
     }
 
     public static void error(final Class c, final String msg) {
-        if (currentLevel <= LEVEL_ERROR) {
-            log.publish(LEVEL_ERROR, c, msg, null);
+        if (isWanted(c, LEVEL_ERROR)) {
+            log.publish(LEVEL_ERROR, c, msg, null, null, null);
         }
     }
 
     public static void error(final Class c, final String msg, final Throwable thrown) {
-        if (currentLevel <= LEVEL_ERROR) {
-            log.publish(LEVEL_ERROR, c, msg, thrown);
+        if (isWanted(c, LEVEL_ERROR)) {
+            log.publish(LEVEL_ERROR, c, msg, null, null, thrown);
+        }
+    }
+
+    public static void error(final Class c, final String fmt, final Object arg) {
+        if (isWanted(c, LEVEL_ERROR)) {
+            log.publish(LEVEL_ERROR, c, fmt, new Object[] {arg});
+        }
+    }
+
+    public static void error(final Class c, final String fmt, final Object arg1,
+                             final Object arg2) {
+        if (isWanted(c, LEVEL_ERROR)) {
+            log.publish(LEVEL_ERROR, c, fmt, new Object[] {arg1, arg2});
+        }
+    }
+
+    public static void error(final Class c, final String fmt, final Object... args) {
+        if (isWanted(c, LEVEL_ERROR)) {
+            log.publish(LEVEL_ERROR, c, fmt, args);
+        }
+    }
+
+    public static void error(final Class c, final Supplier<String> msg) {
+        if (isWanted(c, LEVEL_ERROR)) {
+            log.publish(LEVEL_ERROR, c, null, null, msg, null);
         }
     }
 
     public static void fatal(final Class c, final String msg) {
-        log.publish(LEVEL_FATAL, c, msg, null);
+        log.publish(LEVEL_FATAL, c, msg, null, null, null);
     }
 
     public static void fatal(final Class c, final String msg, final Throwable thrown) {
-        log.publish(LEVEL_FATAL, c, msg, thrown);
+        log.publish(LEVEL_FATAL, c, msg, null, null, thrown);
+    }
+
+    public static void fatal(final Class c, final String fmt, final Object... args) {
+        log.publish(LEVEL_FATAL, c, fmt, args);
     }
 
  /* ---------------------------- Publish Special --------------------------- */
 
     public static void printVersion(final String progname, final Version version) {
-        if (currentLevel <= LEVEL_DEBUG) {
-            StringBuilder sb = new StringBuilder();
-            sb.append("Program: ");
-            sb.append(progname);
-            sb.append(" (");
-            sb.append(version);
-            sb.append(')');
-            log.publish(LEVEL_DEBUG, null, sb.toString(), null);
+        if (isWanted(null, LEVEL_DEBUG)) {
+            log.publish(LEVEL_DEBUG, null, "Program: {} ({})", new Object[] {progname, version});
         }
     }
 
  /* --------------------------------- Log ---------------------------------- */
-    
-    private final SimpleDateFormat formatter;
-    private final PrintStream console;
-    private final String breakLine;
-    private final String newLine;
-    private final Date date;
-    private boolean useLogFile = false;
-    private FileWriter file;
-
-    
+
+    private final ThreadLocal<Local> local;
+    private final EventHandler writer;
+    private final Suppressor.Reporter reporter;
+    private volatile EventRing ring;
+    private volatile Suppressor suppressor;
+    private volatile FlightRecorder recorder;
+    private volatile File crashFile;
+    private volatile Sink console;
+    private volatile Sink file;
+    private volatile Sink[] sinks;
+    private volatile BinarySink binary;
+    private volatile int textLevel;
+
     private Log() {
-        formatter = new SimpleDateFormat("'['yyyy-MM-dd HH:mm:ss'] '");
-        breakLine = System.getProperty("line.separator");
-        newLine = breakLine + "                                ";
-        date = new Date();
+        local = new ThreadLocal<Local>() {
+            @Override
+            protected Local initialValue() {
+                return new Local();
+            }
+        };
+
+        console = new ConsoleSink();
+        sinks = new Sink[] {console};
 
-        FileOutputStream fos = new FileOutputStream(FileDescriptor.err);
-        console = new PrintStream(new BufferedOutputStream(fos ,128), true);
+        writer = new EventHandler() {
+            @Override
+            public void handle(LogEvent e) {
+                write(e);
+            }
+        };
+
+        reporter = new Suppressor.Reporter() {
+            @Override
+            public void report(int level, Class c, String template, long count) {
+                final long time = System.currentTimeMillis();
+                if (template == null) {
+                    emit(time, level, c, "{} log events dropped by rate limit!",
+                         new Object[] {count}, null, null);
+                } else {
+                    emit(time, level, c, "{} similar log events suppressed: {}",
+                         new Object[] {count, template}, null, null);
+                }
+            }
+        };
     }
 
-    private void openFileWriter(File logFile) {
-        try {
-            final File parent = logFile.getParentFile();
-            if(parent != null && !parent.exists() && !parent.mkdirs()){
-                Log.error(Log.class, "Cannot create log file directories!");
+    private void stopAsync() {
+        final EventRing r = ring;
+        if (r != null) {
+            ring = null;
+            final long dropped = r.close();
+            if (dropped > 0) {
+                publish(LEVEL_WARNING, Log.class, "{} log events dropped! Buffer was full.",
+                        new Object[] {dropped});
             }
-            file = new FileWriter(logFile);
-            if (!useLogFile) useLogFile = true;
-        } catch (IOException ex) {
-            Log.error(Log.class, "Cannot create log file!", ex);
         }
     }
 
-    protected void closeFileWriter() {
+    private void dump() {
+        final FlightRecorder fr = recorder;
+        final File f = crashFile;
+        if (fr == null || f == null) {
+            return;
+        }
+        Writer out = null;
         try {
-            if (file != null) file.close();
-        } catch (IOException ex) {}
-    }
-
-    private void publish(final int level, final Class c, final String message,
-                         final Throwable thrown) {
-        StringBuilder sb = new StringBuilder();
-        date.setTime(System.currentTimeMillis());
-        sb.append(formatter.format(date));
-
-        switch (level) {
-            case Log.LEVEL_TRACE:   sb.append("TRACE:    "); break;
-            case Log.LEVEL_DEBUG:   sb.append("DEBUG:    "); break;
-            case Log.LEVEL_INFO:    sb.append("INFO:     "); break;
-            case Log.LEVEL_WARNING: sb.append("WARNING:  "); break;
-            case Log.LEVEL_ERROR:   sb.append("ERROR:    "); break;
-            case Log.LEVEL_FATAL:   sb.append("CRITICAL: "); break;
+            out = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(f, true)));
+            out.write(BREAK_LINE + " ------ Flight Recorder -- " + new Date() + BREAK_LINE);
+            fr.dump(out);
+            out.flush();
+        } catch (IOException ex) {
+            Log.error(Log.class, "Cannot write crash file!", ex);
+        } finally {
+            if (out != null) try { out.close(); } catch (IOException ex) {}
         }
+    }
 
-        if (c != null) {
-            sb.append(c.getSimpleName());
-            sb.append(": ");
+    /**
+     * Replaces a sink of the chain: adds if old is null, removes if sink is
+     * null.
+     */
+    private synchronized void replace(final Sink old, final Sink sink) {
+        final List<Sink> list = new ArrayList(Arrays.asList(sinks));
+        final int i = old == null ? -1 : list.indexOf(old);
+        if (i > -1 && sink != null) {
+            list.set(i, sink);
+        } else {
+            if (i > -1) {
+                list.remove(i);
+            }
+            if (sink != null && !list.contains(sink)) {
+                list.add(sink);
+            }
         }
+        sinks = list.toArray(new Sink[list.size()]);
+    }
 
-        String[] sa = null;
-        if (message != null && !message.isEmpty()) {
-           sa = Pattern.compile("(\r\n|\r|\n|\n\r)").split(message, 0);
-           sb.append(sa[0]);
+    private void setFile(final Sink sink) {
+        final Sink old;
+        synchronized (this) {
+            old = file;
+            file = sink;
+            replace(old, sink);
         }
-        if (sa != null) {
-            for (int i = 1; i < sa.length; i++) {
-                sb.append(newLine);
-                sb.append(sa[i]);
+        if (old != null) {
+            try {
+                old.close();
+            } catch (IOException ex) {
+                Log.error(Log.class, "Cannot close log file!", ex);
             }
         }
+    }
 
-        if (thrown != null) {
+    private void setConsoleSink(final Sink sink) {
+        final Sink old;
+        synchronized (this) {
+            old = console;
+            console = sink;
+            replace(old, sink);
+        }
+        if (old != null) {
             try {
-                StringWriter sw = new StringWriter();
-                PrintWriter pw = new PrintWriter(sw);
-                thrown.printStackTrace(pw);
-                pw.close();
-                sb.append(breakLine);
-                sb.append(" ------ Stack Trace -- begin:");
-                sb.append(breakLine);
-                sb.append(sw.toString());
-                sb.append(" ------ Stack Trace -- end.");
-            } catch (Exception ex) {}
-        }
-        sb.append(breakLine);
-        String s = sb.toString();
-        console.print(s);
-        if(useLogFile) {
+                old.close();
+            } catch (IOException ex) {}
+        }
+    }
+
+    private void setBinary(final BinarySink sink, final int level) {
+        final BinarySink old = binary;
+        textLevel = sink == null ? LEVEL_TRACE : level;
+        binary = sink;
+        if (old != null) {
             try {
-                file.write(s);
-            } catch (NullPointerException ex) {
-                Log.error(Log.class, "No log file created! Cannot write!");
+                old.close();
             } catch (IOException ex) {
-                Log.error(Log.class, "Cannot write to log file!", ex);
+                Log.error(Log.class, "Cannot close binary log file!", ex);
             }
         }
     }
 
+    /**
+     * Closes the binary log and every sink of the chain. The console writes
+     * directly afterwards.
+     */
+    protected void closeSinks() {
+        setBinary(null, LEVEL_TRACE);
+        file = null;
+        for (Sink s : sinks) {
+            try {
+                s.close();
+            } catch (IOException ex) {}
+        }
+        synchronized (this) {
+            sinks = console == null ? new Sink[0] : new Sink[] {console};
+        }
+    }
+
+    /**
+     * Publishes a template event and takes a trailing Throwable argument
+     * without placeholder as thrown.
+     */
+    private void publish(final int level, final Class c, final String fmt,
+                         final Object[] args) {
+        Throwable thrown = null;
+        Object[] a = args;
+        if (args != null && args.length > 0 && args[args.length - 1] instanceof Throwable
+                && fmt != null && LogEvent.countPlaceholders(fmt) < args.length) {
+            thrown = (Throwable) args[args.length - 1];
+            a = Arrays.copyOf(args, args.length - 1);
+        }
+        publish(level, c, fmt, a, null, thrown);
+    }
+
+    private void publish(final int level, final Class c, final String message,
+                         final Object[] args, final Supplier<String> supplier,
+                         final Throwable thrown) {
+        final long time = System.currentTimeMillis();
+        final FlightRecorder fr = recorder;
+        if (fr != null) {
+            fr.record(time, level, c, message, args, supplier, thrown);
+            if (level == LEVEL_FATAL) {
+                dump();
+            } else if (!isEnabled(c, level)) {
+                return;
+            }
+        }
+        final Suppressor s = suppressor;
+        if (s != null && !s.accept(time, level, c, message, thrown)) {
+            return;
+        }
+        emit(time, level, c, message, args, supplier, thrown);
+    }
+
+    private void emit(final long time, final int level, final Class c, final String message,
+                      final Object[] args, final Supplier<String> supplier,
+                      final Throwable thrown) {
+        final Local l = local.get();
+        final LogEvent e = l.busy ? new LogEvent() : l.event;
+        e.set(time, level, c, message, args, supplier, thrown);
+        e.setThread(Thread.currentThread());
+        try {
+            final EventRing r = ring;
+            if (r != null && r.offer(e)) {
+                if (level == LEVEL_FATAL) {
+                    r.flush();
+                }
+            } else {
+                write(e);
+            }
+        } finally {
+            e.clear();
+        }
+    }
+
+    private void write(final LogEvent e) {
+        final Local l = local.get();
+        // a nested call (e.g. an error while writing, or a log call of an
+        // argument being encoded) gets its own layouts and is written to
+        // the console only
+        final boolean nested = l.busy;
+        final Sink con = console;
+        final int level = e.getLevel();
+        l.busy = true;
+        try {
+            final BinarySink b = binary;
+            if (b != null) {
+                if (!nested) {
+                    try {
+                        b.write(e);
+                    } catch (IOException ex) {
+                        binary = null;
+                        Log.error(Log.class, "Cannot write to binary log file!", ex);
+                    }
+                }
+                if (level < textLevel && !nested) {
+                    return;
+                }
+            }
+            Layout text = null, json = null;
+            int textLength = 0, jsonLength = 0;
+            for (Sink s : sinks) {
+                if (level < s.getLevel() || (nested && s != con)) {
+                    continue;
+                }
+                // every layout formats the event once for all its sinks
+                final Layout layout;
+                final int length;
+                if (s.isJson()) {
+                    if (json == null) {
+                        json = nested ? new JsonLayout() : l.json();
+                        jsonLength = json.format(e);
+                    }
+                    layout = json;
+                    length = jsonLength;
+                } else {
+                    if (text == null) {
+                        text = nested ? new TextLayout() : l.layout;
+                        textLength = text.format(e);
+                    }
+                    layout = text;
+                    length = textLength;
+                }
+                try {
+                    s.write(layout.getChars(), 0, length, level);
+                    if (level == LEVEL_FATAL) {
+                        s.flush();
+                    }
+                } catch (IOException ex) {
+                    if (s != con) {
+                        Log.error(Log.class, "Cannot write to log sink!", ex);
+                    }
+                }
+            }
+        } finally {
+            l.busy = nested;
+        }
+    }
+
+ /* ------------------------------- Local ---------------------------------- */
+
+    /** Per thread state, reused for every event written by the thread */
+    private static class Local {
+
+        private final TextLayout layout = new TextLayout();
+        private final LogEvent event = new LogEvent();
+        private JsonLayout json;
+        private boolean busy;
+
+        private JsonLayout json() {
+            if (json == null) {
+                json = new JsonLayout();
+            }
+            return json;
+        }
+
+    }
+
 }
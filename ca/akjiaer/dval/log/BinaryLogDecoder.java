@@ -0,0 +1,224 @@
+/*
+ * Copyright (c) 2011, Stefan Neubert <akjiaer@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package ca.akjiaer.dval.log;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedWriter;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Turns a binary log written by {@link BinarySink} back into the text
+ * layout of the log file.
+ * <pre>java ca.akjiaer.dval.log.BinaryLogDecoder &lt;binary log&gt; [&lt;text file&gt;]</pre>
+ * Without a text file the decoded log is written to standard output.
+ *
+ * @author Stefan Neubert
+ * @version 1.0 2011-04-27
+ * @since 0.11.0
+ */
+public class BinaryLogDecoder {
+
+    public static void main(String[] args) {
+        if (args.length < 1 || args.length > 2) {
+            System.err.println("Usage: BinaryLogDecoder <binary log> [<text file>]");
+            System.exit(2);
+        }
+        InputStream in = null;
+        Writer out = null;
+        try {
+            in = new FileInputStream(args[0]);
+            out = new BufferedWriter(new OutputStreamWriter(args.length > 1
+                    ? new FileOutputStream(args[1]) : System.out), 64 * 1024);
+            final long n = new BinaryLogDecoder(in).decode(out);
+            out.flush();
+            System.err.println(n + " events decoded.");
+        } catch (IOException ex) {
+            System.err.println("Cannot decode '" + args[0] + "': " + ex.getMessage());
+            System.exit(1);
+        } finally { if (in != null) try { in.close(); } catch (IOException ex) {}
+                    if (out != null) try { out.close(); } catch (IOException ex) {}}
+    }
+
+    public static long decode(final File file, final Writer out) throws IOException {
+        final InputStream in = new FileInputStream(file);
+        try {
+            return new BinaryLogDecoder(in).decode(out);
+        } finally {
+            in.close();
+        }
+    }
+
+ /* -------------------------- BinaryLogDecoder ---------------------------- */
+
+    private final DataInputStream in;
+    private final List<String> classes = new ArrayList();
+    private final List<String> templates = new ArrayList();
+    private final TextLayout layout = new TextLayout();
+    private final LogEvent event = new LogEvent();
+
+    public BinaryLogDecoder(final InputStream in) {
+        this.in = new DataInputStream(new BufferedInputStream(in, 64 * 1024));
+    }
+
+    /**
+     * @return number of decoded events
+     */
+    public long decode(final Writer out) throws IOException {
+        if (in.readInt() != BinarySink.MAGIC) {
+            throw new IOException("Not a binary log!");
+        }
+        final short version = in.readShort();
+        if (version != BinarySink.VERSION) {
+            throw new IOException("Unsupported binary log version " + version + "!");
+        }
+        long count = 0;
+        try {
+            while (true) {
+                final byte type = in.readByte();
+                switch (type) {
+                    case BinarySink.RECORD_END:
+                        return count;
+                    case BinarySink.RECORD_CLASS:
+                        readClass();
+                        break;
+                    case BinarySink.RECORD_TEMPLATE:
+                        readTemplate();
+                        break;
+                    case BinarySink.RECORD_EVENT:
+                        readEvent();
+                        final int length = layout.format(event);
+                        out.write(layout.getChars(), 0, length);
+                        event.clear();
+                        count++;
+                        break;
+                    default:
+                        throw new IOException("Unknown record type " + type + "!");
+                }
+            }
+        } catch (EOFException ex) {
+            return count;
+        }
+    }
+
+    private void readClass() throws IOException {
+        final int id = in.readInt();
+        readString(); // full name
+        set(classes, id, readString());
+    }
+
+    private void readTemplate() throws IOException {
+        final int id = in.readInt();
+        set(templates, id, readString());
+    }
+
+    private static void set(final List<String> table, final int id, final String value)
+                            throws IOException {
+        if (id < 0 || id > table.size()) {
+            throw new IOException("Corrupt table id " + id + "!");
+        }
+        if (id == table.size()) {
+            table.add(value);
+        } else {
+            table.set(id, value);
+        }
+    }
+
+    private static String get(final List<String> table, final int id) throws IOException {
+        if (id < 0 || id >= table.size()) {
+            throw new IOException("Unknown table id " + id + "!");
+        }
+        return table.get(id);
+    }
+
+    private void readEvent() throws IOException {
+        final long time = in.readLong();
+        final int level = in.readByte();
+        final int classId = in.readInt();
+        final int templateId = in.readInt();
+        final String message = templateId == BinarySink.INLINE
+                             ? readString() : get(templates, templateId);
+        final Object[] args = new Object[in.readUnsignedByte()];
+        for (int i = 0; i < args.length; i++) {
+            args[i] = readArg();
+        }
+        final Throwable thrown = in.readByte() == 0 ? null : new Recorded(readString());
+        event.set(time, level, null, message, args.length > 0 ? args : null, null, thrown);
+        if (classId != BinarySink.NONE) {
+            event.setSourceName(get(classes, classId));
+        }
+    }
+
+    private Object readArg() throws IOException {
+        final byte tag = in.readByte();
+        switch (tag) {
+            case BinarySink.ARG_NULL:    return null;
+            case BinarySink.ARG_INT:     return in.readInt();
+            case BinarySink.ARG_LONG:    return in.readLong();
+            case BinarySink.ARG_DOUBLE:  return in.readDouble();
+            case BinarySink.ARG_FLOAT:   return in.readFloat();
+            case BinarySink.ARG_BOOLEAN: return in.readByte() != 0;
+            case BinarySink.ARG_CHAR:    return in.readChar();
+            case BinarySink.ARG_STRING:  return readString();
+            default: throw new IOException("Unknown argument tag " + tag + "!");
+        }
+    }
+
+    private String readString() throws IOException {
+        final int length = in.readInt();
+        if (length < 0) {
+            return null;
+        }
+        final char[] chars = new char[length];
+        for (int i = 0; i < length; i++) {
+            chars[i] = in.readChar();
+        }
+        return new String(chars);
+    }
+
+ /* ------------------------------ Recorded -------------------------------- */
+
+    /** Throwable which prints the recorded stack trace text */
+    private static class Recorded extends Throwable {
+
+        private final static long serialVersionUID = 1L;
+
+        private final String trace;
+
+        private Recorded(final String trace) {
+            super(null, null, false, false);
+            this.trace = trace;
+        }
+
+        @Override
+        public void printStackTrace(PrintWriter pw) {
+            pw.print(trace);
+        }
+
+    }
+
+}
@@ -0,0 +1,282 @@
+/*
+ * Copyright (c) 2011, Stefan Neubert <akjiaer@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package ca.akjiaer.dval.log;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Writes log events unformatted as fixed-layout records into a memory
+ * mapped file. Classes and templates are written once into a table and
+ * referenced by id afterwards. Use {@link BinaryLogDecoder} to get the text
+ * layout back.
+ * <p>
+ * File layout (big endian): the header <code>MAGIC, VERSION</code> followed
+ * by records, each starting with its type byte:
+ * <pre>
+ * CLASS     int id, str name, str simple name
+ * TEMPLATE  int id, str template
+ * EVENT     long time, byte level, int class id, int template id,
+ *           [str message if template id is INLINE], byte argc, args...,
+ *           byte has thrown, [str stack trace]
+ * END       (zero, unused rest of the last mapped region)
+ * </pre>
+ * A <code>str</code> is an int length (-1 for null) followed by the UTF-16
+ * chars, an argument is a tag byte followed by its value.
+ *
+ * @author Stefan Neubert
+ * @version 1.0 2011-04-27
+ * @since 0.11.0
+ */
+public class BinarySink {
+
+    public final static int MAGIC = 0x44564C42; // DVLB
+    public final static short VERSION = 1;
+
+    public final static byte RECORD_END = 0;
+    public final static byte RECORD_CLASS = 1;
+    public final static byte RECORD_TEMPLATE = 2;
+    public final static byte RECORD_EVENT = 3;
+
+    public final static byte ARG_NULL = 0;
+    public final static byte ARG_INT = 1;
+    public final static byte ARG_LONG = 2;
+    public final static byte ARG_DOUBLE = 3;
+    public final static byte ARG_BOOLEAN = 4;
+    public final static byte ARG_CHAR = 5;
+    public final static byte ARG_STRING = 6;
+    public final static byte ARG_FLOAT = 7;
+
+    /** Class id of events without class */
+    public final static int NONE = -1;
+    /** Template id of events with a plain message, written inline */
+    public final static int INLINE = -2;
+
+    private final static int REGION_SIZE = 64 << 20;
+    private final static int MAX_TEMPLATES = 1 << 16;
+
+ /* ----------------------------- BinarySink ------------------------------- */
+
+    /** Class ids by name, so that no class (loader) is kept alive */
+    private final Map<String, Integer> classes = new HashMap();
+    private final Map<String, Integer> templates = new HashMap();
+    private final File file;
+    private final FileChannel channel;
+    private ByteBuffer record = ByteBuffer.allocate(1024);
+    private MappedByteBuffer region;
+    /** File position of the current region */
+    private long base;
+    private boolean closed;
+
+    public BinarySink(final File file) throws IOException {
+        final File parent = file.getParentFile();
+        if (parent != null && !parent.exists() && !parent.mkdirs()) {
+            throw new IOException("Cannot create log file directories!");
+        }
+        this.file = file;
+        this.channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE,
+                                        StandardOpenOption.READ, StandardOpenOption.WRITE,
+                                        StandardOpenOption.TRUNCATE_EXISTING);
+        this.region = channel.map(FileChannel.MapMode.READ_WRITE, 0, REGION_SIZE);
+        region.putInt(MAGIC);
+        region.putShort(VERSION);
+    }
+
+    public File getFile() {
+        return file;
+    }
+
+    public synchronized void write(final LogEvent e) throws IOException {
+        if (closed) {
+            throw new IOException("Binary log is closed!");
+        }
+        final Class c = e.getSource();
+        int classId = NONE;
+        if (c != null) {
+            final String name = c.getName();
+            final Integer id = classes.get(name);
+            if (id == null) {
+                classId = classes.size();
+                classes.put(name, classId);
+                record.clear();
+                record.put(RECORD_CLASS);
+                record.putInt(classId);
+                putString(name);
+                putString(TextLayout.getName(c));
+                append();
+            } else {
+                classId = id;
+            }
+        }
+
+        final Object[] args = e.getArgs();
+        final String template = e.getTemplate();
+        int templateId = INLINE;
+        if (args.length > 0 && template != null) {
+            final Integer id = templates.get(template);
+            if (id != null) {
+                templateId = id;
+            } else if (templates.size() < MAX_TEMPLATES) {
+                templateId = templates.size();
+                templates.put(template, templateId);
+                record.clear();
+                record.put(RECORD_TEMPLATE);
+                record.putInt(templateId);
+                putString(template);
+                append();
+            }
+        }
+
+        record.clear();
+        record.put(RECORD_EVENT);
+        record.putLong(e.getTime());
+        record.put((byte) e.getLevel());
+        record.putInt(classId);
+        record.putInt(templateId);
+        if (templateId == INLINE) {
+            putString(args.length > 0 ? e.getMessage() : template);
+            ensure(1);
+            record.put((byte) 0);
+        } else {
+            final int argc = Math.min(args.length, 255);
+            record.put((byte) argc);
+            for (int i = 0; i < argc; i++) {
+                putArg(args[i]);
+            }
+        }
+        final Throwable thrown = e.getThrown();
+        ensure(1);
+        if (thrown == null) {
+            record.put((byte) 0);
+        } else {
+            record.put((byte) 1);
+            final StringWriter sw = new StringWriter();
+            thrown.printStackTrace(new PrintWriter(sw));
+            putString(sw.toString());
+        }
+        append();
+    }
+
+    private void putArg(final Object arg) {
+        if (arg == null) {
+            ensure(1);
+            record.put(ARG_NULL);
+        } else if (arg instanceof Integer || arg instanceof Short || arg instanceof Byte) {
+            ensure(5);
+            record.put(ARG_INT);
+            record.putInt(((Number) arg).intValue());
+        } else if (arg instanceof Long) {
+            ensure(9);
+            record.put(ARG_LONG);
+            record.putLong((Long) arg);
+        } else if (arg instanceof Double) {
+            ensure(9);
+            record.put(ARG_DOUBLE);
+            record.putDouble((Double) arg);
+        } else if (arg instanceof Float) {
+            ensure(5);
+            record.put(ARG_FLOAT);
+            record.putFloat((Float) arg);
+        } else if (arg instanceof Boolean) {
+            ensure(2);
+            record.put(ARG_BOOLEAN);
+            record.put((byte) ((Boolean) arg ? 1 : 0));
+        } else if (arg instanceof Character) {
+            ensure(3);
+            record.put(ARG_CHAR);
+            record.putChar((Character) arg);
+        } else {
+            final StringBuilder sb = new StringBuilder();
+            LogEvent.appendTemplate(sb, "{}", new Object[] {arg});
+            ensure(1);
+            record.put(ARG_STRING);
+            putString(sb);
+        }
+    }
+
+    private void putString(final CharSequence s) {
+        if (s == null) {
+            ensure(4);
+            record.putInt(-1);
+            return;
+        }
+        final int length = s.length();
+        ensure(4 + 2 * length);
+        record.putInt(length);
+        for (int i = 0; i < length; i++) {
+            record.putChar(s.charAt(i));
+        }
+    }
+
+    /** Grows the record buffer, so that the given number of bytes fit. */
+    private void ensure(final int bytes) {
+        if (record.remaining() < bytes) {
+            final ByteBuffer b = ByteBuffer.allocate(Math.max(record.capacity() * 2,
+                                                              record.position() + bytes));
+            record.flip();
+            b.put(record);
+            record = b;
+        }
+    }
+
+    /** Copies the record into the mapped region, maps the next if needed. */
+    private void append() throws IOException {
+        record.flip();
+        if (region.remaining() < record.remaining()) {
+            base += region.position();
+            region = channel.map(FileChannel.MapMode.READ_WRITE, base,
+                                 Math.max(REGION_SIZE, record.remaining()));
+        }
+        try {
+            region.put(record);
+        } catch (BufferOverflowException ex) {
+            throw new IOException("Cannot append record!", ex);
+        }
+    }
+
+    public synchronized void flush() {
+        if (!closed) {
+            region.force();
+        }
+    }
+
+    /**
+     * Forces the data to disk and cuts off the unused part of the region, if
+     * the platform allows it while the region is still mapped.
+     */
+    public synchronized void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        region.force();
+        try {
+            channel.truncate(base + region.position());
+        } catch (IOException ex) {}
+        channel.close();
+    }
+
+}
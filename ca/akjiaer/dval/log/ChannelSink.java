@@ -0,0 +1,399 @@
+/*
+ * Copyright (c) 2011, Stefan Neubert <akjiaer@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package ca.akjiaer.dval.log;
+
+import ca.akjiaer.dval.Log;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.Charset;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Log file built on a {@link FileChannel} and two direct buffers.
+ * <p>
+ * Lines of concurrent writers are collected in the active buffer. The first
+ * writer which finds no write in progress becomes the leader: it swaps the
+ * buffers, writes the full one with a single call and repeats this until
+ * the active buffer is empty. All other writers return right after copying
+ * their line (group commit).
+ *
+ * @author Stefan Neubert
+ * @version 1.0 2011-04-23
+ * @since 0.11.0
+ */
+public class ChannelSink extends Sink {
+
+    /** Leave it to the operating system when data reaches the disk. */
+    public final static int SYNC_NEVER = 0;
+    /** Force the file to disk every <code>interval</code> milliseconds. */
+    public final static int SYNC_INTERVAL = 1;
+    /** Force the file to disk before an ERROR or FATAL event returns. */
+    public final static int SYNC_ERROR = 2;
+
+    public final static int DEFAULT_BUFFER_SIZE = 256 * 1024;
+
+    private final static ThreadLocal<Encoder> encoders = new ThreadLocal<Encoder>() {
+        @Override
+        protected Encoder initialValue() {
+            return new Encoder();
+        }
+    };
+
+ /* ---------------------------- ChannelSink ------------------------------- */
+
+    protected final File file;
+    protected final ReentrantLock lock = new ReentrantLock();
+    private final Condition written = lock.newCondition();
+    private final int sync;
+    private final long interval;
+    private final Syncer syncer;
+    private ByteBuffer active;
+    private ByteBuffer spare;
+    protected FileChannel channel;
+    /** Number of bytes copied into the buffers */
+    private long appended;
+    /** Number of bytes written to the channel */
+    private long committed;
+    /** Number of bytes forced to disk */
+    private long synced;
+    /** Bytes which have to be forced by the current leader */
+    private long syncRequest;
+    private boolean writing;
+    private boolean closed;
+
+    public ChannelSink(final File file) throws IOException {
+        this(file, SYNC_NEVER, 0, DEFAULT_BUFFER_SIZE);
+    }
+
+    public ChannelSink(final File file, final int sync, final long interval)
+                       throws IOException {
+        this(file, sync, interval, DEFAULT_BUFFER_SIZE);
+    }
+
+    public ChannelSink(final File file, final int sync, final long interval,
+                       final int bufferSize) throws IOException {
+        this(file, sync, interval, bufferSize, false);
+    }
+
+    protected ChannelSink(final File file, final int sync, final long interval,
+                          final int bufferSize, final boolean append) throws IOException {
+        if (sync < SYNC_NEVER || sync > SYNC_ERROR) {
+            throw new IllegalArgumentException("Unknown sync policy!");
+        }
+        if (sync == SYNC_INTERVAL && interval <= 0) {
+            throw new IllegalArgumentException("Sync interval must be positive!");
+        }
+        if (bufferSize < 1024) {
+            throw new IllegalArgumentException("Buffer size must be at least 1024 bytes!");
+        }
+        this.file = file;
+        this.sync = sync;
+        this.interval = interval;
+        this.active = ByteBuffer.allocateDirect(bufferSize);
+        this.spare = ByteBuffer.allocateDirect(bufferSize);
+        this.channel = open(append);
+        if (sync == SYNC_INTERVAL) {
+            syncer = new Syncer();
+            syncer.start();
+        } else {
+            syncer = null;
+        }
+    }
+
+    protected FileChannel open(final boolean append) throws IOException {
+        final File parent = file.getParentFile();
+        if (parent != null && !parent.exists() && !parent.mkdirs()) {
+            throw new IOException("Cannot create log file directories!");
+        }
+        if (append) {
+            return FileChannel.open(file.toPath(), StandardOpenOption.CREATE,
+                                    StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+        }
+        return FileChannel.open(file.toPath(), StandardOpenOption.CREATE,
+                                StandardOpenOption.WRITE,
+                                StandardOpenOption.TRUNCATE_EXISTING);
+    }
+
+    public File getFile() {
+        return file;
+    }
+
+    @Override
+    public void write(final char[] chars, final int off, final int len,
+                      final int level) throws IOException {
+        final ByteBuffer bytes = encoders.get().encode(chars, off, len);
+        final boolean force = sync == SYNC_ERROR && level >= Log.LEVEL_ERROR;
+        lock.lock();
+        try {
+            if (closed) {
+                throw new IOException("Log file is closed!");
+            }
+            final int n = bytes.remaining();
+            if (n > active.capacity()) {
+                writeDirect(bytes);
+            } else {
+                // a line is never split, so that lines cannot interleave
+                while (active.remaining() < n) {
+                    if (writing) {
+                        written.awaitUninterruptibly();
+                    } else {
+                        commit();
+                    }
+                }
+                active.put(bytes);
+                appended += n;
+            }
+            final long mine = appended;
+            if (force && syncRequest < mine) {
+                syncRequest = mine;
+            }
+            if (!writing) {
+                commit();
+            } else if (force) {
+                while (synced < mine) {
+                    if (writing) {
+                        written.awaitUninterruptibly();
+                    } else {
+                        commit();
+                    }
+                }
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Writes the buffers until they are empty. Has to be called with the
+     * lock held and no other write in progress; the lock is released while
+     * the channel is written.
+     */
+    private void commit() throws IOException {
+        writing = true;
+        try {
+            while (active.position() > 0 || syncRequest > synced) {
+                final ByteBuffer b = active;
+                active = spare;
+                spare = b;
+                final long end = appended;
+                final boolean force = syncRequest > synced;
+                beforeWrite(b.position());
+                final FileChannel fc = channel;
+                lock.unlock();
+                try {
+                    b.flip();
+                    while (b.hasRemaining()) {
+                        fc.write(b);
+                    }
+                    if (force) {
+                        fc.force(false);
+                    }
+                } finally {
+                    b.clear();
+                    lock.lock();
+                }
+                committed = end;
+                if (force) {
+                    synced = end;
+                }
+                written.signalAll();
+            }
+        } finally {
+            writing = false;
+            written.signalAll();
+        }
+    }
+
+    /**
+     * Writes a line which does not fit into the buffers straight to the
+     * channel, after everything buffered before has been written.
+     */
+    private void writeDirect(final ByteBuffer bytes) throws IOException {
+        while (writing) {
+            written.awaitUninterruptibly();
+        }
+        commit();
+        writing = true;
+        try {
+            final long end = appended + bytes.remaining();
+            beforeWrite(bytes.remaining());
+            final FileChannel fc = channel;
+            lock.unlock();
+            try {
+                while (bytes.hasRemaining()) {
+                    fc.write(bytes);
+                }
+            } finally {
+                lock.lock();
+            }
+            appended = committed = end;
+        } finally {
+            writing = false;
+            written.signalAll();
+        }
+    }
+
+    /**
+     * Called by the leader with the lock held, before a batch of the given
+     * number of bytes is written. No write is in progress at this time, so
+     * the channel may be replaced.
+     */
+    protected void beforeWrite(final int length) throws IOException {
+    }
+
+    @Override
+    public void flush() throws IOException {
+        lock.lock();
+        try {
+            while (writing) {
+                written.awaitUninterruptibly();
+            }
+            if (active.position() > 0) {
+                commit();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (syncer != null) {
+            syncer.interrupt();
+        }
+        lock.lock();
+        try {
+            if (closed) {
+                return;
+            }
+            while (writing) {
+                written.awaitUninterruptibly();
+            }
+            try {
+                if (active.position() > 0) {
+                    commit();
+                }
+                if (sync != SYNC_NEVER) {
+                    channel.force(false);
+                }
+            } finally {
+                closed = true;
+                channel.close();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+ /* ------------------------------- Syncer --------------------------------- */
+
+    private class Syncer extends Thread {
+
+        private Syncer() {
+            super("Log Sync");
+            setDaemon(true);
+            setPriority(Thread.MIN_PRIORITY);
+        }
+
+        @Override
+        public void run() {
+            try {
+                while (!interrupted()) {
+                    Thread.sleep(interval);
+                    final FileChannel fc;
+                    final long end;
+                    lock.lock();
+                    try {
+                        if (closed || committed == synced) {
+                            continue;
+                        }
+                        fc = channel;
+                        end = committed;
+                    } finally {
+                        lock.unlock();
+                    }
+                    try {
+                        fc.force(false);
+                    } catch (IOException ex) {
+                        continue;
+                    }
+                    lock.lock();
+                    try {
+                        if (synced < end && fc == channel) {
+                            synced = end;
+                        }
+                    } finally {
+                        lock.unlock();
+                    }
+                }
+            } catch (InterruptedException ex) {}
+        }
+
+    }
+
+ /* ------------------------------- Encoder -------------------------------- */
+
+    /** Per thread encoder, so that lines are encoded outside of the lock */
+    private static class Encoder {
+
+        private final CharsetEncoder encoder;
+        private ByteBuffer bytes = ByteBuffer.allocate(512);
+        private CharBuffer chars = CharBuffer.allocate(0);
+
+        private Encoder() {
+            encoder = Charset.defaultCharset().newEncoder()
+                             .onMalformedInput(CodingErrorAction.REPLACE)
+                             .onUnmappableCharacter(CodingErrorAction.REPLACE);
+        }
+
+        private ByteBuffer encode(final char[] array, final int off, final int len) {
+            if (chars.array() != array) {
+                chars = CharBuffer.wrap(array);
+            }
+            chars.limit(off + len).position(off);
+            bytes.clear();
+            encoder.reset();
+            while (true) {
+                CoderResult cr = chars.hasRemaining()
+                               ? encoder.encode(chars, bytes, true)
+                               : CoderResult.UNDERFLOW;
+                if (cr.isUnderflow()) {
+                    cr = encoder.flush(bytes);
+                }
+                if (cr.isUnderflow()) {
+                    break;
+                }
+                final ByteBuffer b = ByteBuffer.allocate(bytes.capacity() * 2);
+                bytes.flip();
+                b.put(bytes);
+                bytes = b;
+            }
+            bytes.flip();
+            return bytes;
+        }
+
+    }
+
+}
@@ -0,0 +1,234 @@
+/*
+ * Copyright (c) 2011, Stefan Neubert <akjiaer@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package ca.akjiaer.dval.log;
+
+import ca.akjiaer.dval.Log;
+import java.io.FileDescriptor;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Console output which never blocks the caller. Lines are copied into a
+ * char ring and written by a background thread. If the console cannot keep
+ * up (e.g. stderr is a slow pipe) and the ring is full, lines are dropped
+ * and their number is written as soon as there is room again. Fatal lines
+ * and lines larger than the ring are never dropped; they are written by
+ * the caller after the waiting lines.
+ *
+ * @author Stefan Neubert
+ * @version 1.1 2011-05-15
+ * @since 0.11.0
+ */
+public class ConsoleSink extends Sink {
+
+    public final static int DEFAULT_CAPACITY = 64 * 1024;
+
+    private final static String BREAK_LINE = System.getProperty("line.separator");
+
+    /** Maximum time flush() waits for the console */
+    private final static long FLUSH_TIMEOUT = 1000;
+
+ /* ----------------------------- ConsoleSink ------------------------------ */
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition filled = lock.newCondition();
+    private final Condition drained = lock.newCondition();
+    private final Writer out;
+    private final char[] ring;
+    private final Drainer drainer;
+    private int start;
+    private int size;
+    /** Chars taken from the ring, but not written yet */
+    private int writing;
+    private long dropped;
+    private boolean closed;
+
+    /**
+     * Writes to standard error.
+     */
+    public ConsoleSink() {
+        this(new FileOutputStream(FileDescriptor.err), DEFAULT_CAPACITY);
+    }
+
+    /**
+     * @param capacity number of chars which can wait for the console
+     */
+    public ConsoleSink(final OutputStream out, final int capacity) {
+        if (capacity < 1024) {
+            throw new IllegalArgumentException("Capacity must be at least 1024 chars!");
+        }
+        this.out = new OutputStreamWriter(out);
+        this.ring = new char[capacity];
+        this.drainer = new Drainer();
+        drainer.start();
+    }
+
+    @Override
+    public void write(final char[] chars, final int off, final int len, final int level) {
+        lock.lock();
+        try {
+            if (closed) {
+                // late events at shutdown, no thread left to wait for
+                try {
+                    out.write(chars, off, len);
+                    out.flush();
+                } catch (IOException ex) {}
+                return;
+            }
+            if (ring.length - size < len) {
+                if (level >= Log.LEVEL_FATAL || len > ring.length) {
+                    writeDirect(chars, off, len);
+                } else {
+                    dropped++;
+                }
+                return;
+            }
+            final int end = (start + size) % ring.length;
+            final int n = Math.min(len, ring.length - end);
+            System.arraycopy(chars, off, ring, end, n);
+            System.arraycopy(chars, off + n, ring, 0, len - n);
+            if (size == 0) {
+                filled.signal();
+            }
+            size += len;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Writes the line by the caller, after the waiting lines have been
+     * written. Has to be called with the lock held.
+     */
+    private void writeDirect(final char[] chars, final int off, final int len) {
+        long nanos = TimeUnit.MILLISECONDS.toNanos(FLUSH_TIMEOUT);
+        try {
+            while ((size > 0 || writing > 0) && nanos > 0 && drainer.isAlive()) {
+                nanos = drained.awaitNanos(nanos);
+            }
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+        try {
+            out.write(chars, off, len);
+            out.flush();
+        } catch (IOException ex) {}
+    }
+
+    /**
+     * Waits a short time until the waiting lines are written.
+     */
+    @Override
+    public void flush() {
+        lock.lock();
+        try {
+            long nanos = TimeUnit.MILLISECONDS.toNanos(FLUSH_TIMEOUT);
+            while ((size > 0 || writing > 0) && nanos > 0 && drainer.isAlive()) {
+                nanos = drained.awaitNanos(nanos);
+            }
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Writes the waiting lines and stops the background thread. The console
+     * itself stays open, later lines are written directly.
+     */
+    @Override
+    public void close() {
+        lock.lock();
+        try {
+            closed = true;
+            filled.signal();
+        } finally {
+            lock.unlock();
+        }
+        try {
+            drainer.join(FLUSH_TIMEOUT);
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+ /* ------------------------------- Drainer -------------------------------- */
+
+    private class Drainer extends Thread {
+
+        private final char[] chunk = new char[ring.length];
+
+        private Drainer() {
+            super("Log Console");
+            setDaemon(true);
+        }
+
+        @Override
+        public void run() {
+            while (true) {
+                final int n;
+                final long lost;
+                lock.lock();
+                try {
+                    while (size == 0 && !closed) {
+                        filled.awaitUninterruptibly();
+                    }
+                    if (size == 0) {
+                        drained.signalAll();
+                        return;
+                    }
+                    n = size;
+                    final int first = Math.min(n, ring.length - start);
+                    System.arraycopy(ring, start, chunk, 0, first);
+                    System.arraycopy(ring, 0, chunk, first, n - first);
+                    start = (start + n) % ring.length;
+                    size = 0;
+                    writing = n;
+                    lost = dropped;
+                    dropped = 0;
+                } finally {
+                    lock.unlock();
+                }
+                try {
+                    out.write(chunk, 0, n);
+                    if (lost > 0) {
+                        out.write(" ------ " + lost + " console lines dropped!" + BREAK_LINE);
+                    }
+                    out.flush();
+                } catch (IOException ex) {}
+                lock.lock();
+                try {
+                    writing = 0;
+                    if (size == 0) {
+                        drained.signalAll();
+                    }
+                } finally {
+                    lock.unlock();
+                }
+            }
+        }
+
+    }
+
+}
@@ -0,0 +1,28 @@
+/*
+ * Copyright (c) 2011, Stefan Neubert <akjiaer@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package ca.akjiaer.dval.log;
+
+/**
+ * @author Stefan Neubert
+ * @version 1.0 2011-04-21
+ * @since 0.11.0
+ */
+public interface EventHandler {
+
+    public void handle(final LogEvent e);
+
+}
@@ -0,0 +1,336 @@
+/*
+ * Copyright (c) 2011, Stefan Neubert <akjiaer@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package ca.akjiaer.dval.log;
+
+import ca.akjiaer.dval.Log;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Bounded ring of preallocated {@link LogEvent} slots. Callers copy their
+ * event into a free slot and return, one background thread drains the ring
+ * and passes each event to the {@link EventHandler}.
+ *
+ * @author Stefan Neubert
+ * @version 1.2 2011-05-16
+ * @since 0.11.0
+ */
+public class EventRing {
+
+    /** Wait until the writer thread has freed a slot. */
+    public final static int POLICY_BLOCK = 0;
+    /** Overwrite the oldest waiting event, except fatal events. */
+    public final static int POLICY_DROP_OLDEST = 1;
+    /** Discard the event which should be added, except fatal events. */
+    public final static int POLICY_DROP_NEWEST = 2;
+
+    public static int parsePolicy(final String s) {
+        if (s == null || s.isEmpty() || s.equalsIgnoreCase("block")) {
+            return POLICY_BLOCK;
+        } else if (s.equalsIgnoreCase("drop-oldest")) {
+            return POLICY_DROP_OLDEST;
+        } else if (s.equalsIgnoreCase("drop-newest")) {
+            return POLICY_DROP_NEWEST;
+        }
+        throw new IllegalArgumentException("Unknown policy '" + s + "'!");
+    }
+
+ /* ------------------------------ EventRing ------------------------------- */
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition notEmpty = lock.newCondition();
+    private final Condition notFull = lock.newCondition();
+    private final Condition drained = lock.newCondition();
+    private final EventHandler handler;
+    private final LogEvent[] slots;
+    private final Writer writer;
+    private final int policy;
+    private final int mask;
+    /** Sequence of the next slot to read */
+    private long head;
+    /** Sequence of the next slot to write */
+    private long tail;
+    private long dropped;
+    private boolean busy;
+    private boolean closed;
+    /**
+     * The writer takes no more events, as the ring is closed or the writer
+     * died; the rest is left to the closer
+     */
+    private boolean stopped;
+
+    public EventRing(final EventHandler handler, final int capacity, final int policy) {
+        if (handler == null) {
+            throw new IllegalArgumentException("Handler cannot be null!");
+        }
+        if (capacity < 1 || capacity > 1 << 24) {
+            throw new IllegalArgumentException("Capacity must be between 1 and 2^24!");
+        }
+        if (policy < POLICY_BLOCK || policy > POLICY_DROP_NEWEST) {
+            throw new IllegalArgumentException("Unknown policy!");
+        }
+        int size = 1;
+        while (size < capacity) {
+            size <<= 1;
+        }
+        this.slots = new LogEvent[size];
+        for (int i = 0; i < size; i++) {
+            slots[i] = new LogEvent();
+        }
+        this.mask = size - 1;
+        this.handler = handler;
+        this.policy = policy;
+        this.writer = new Writer();
+        this.writer.start();
+    }
+
+    /**
+     * Copies the event into a free slot.
+     *
+     * @return false, if the ring is closed, the writer thread has died, the
+     *         caller is the writer thread itself, a fatal event does not fit
+     *         or every waiting event is fatal - the caller has to handle the
+     *         event on its own then
+     */
+    public boolean offer(final LogEvent e) {
+        if (Thread.currentThread() == writer) {
+            return false;
+        }
+        lock.lock();
+        try {
+            if (closed || stopped) {
+                return false;
+            }
+            if (tail - head == slots.length) {
+                switch (policy) {
+                    case POLICY_DROP_NEWEST:
+                        if (e.getLevel() >= Log.LEVEL_FATAL) {
+                            return false;
+                        }
+                        dropped++;
+                        return true;
+                    case POLICY_DROP_OLDEST:
+                        if (!dropOldest()) {
+                            return false;
+                        }
+                        break;
+                    default:
+                        while (tail - head == slots.length) {
+                            notFull.awaitUninterruptibly();
+                            if (closed || stopped) {
+                                return false;
+                            }
+                        }
+                }
+            }
+            slots[(int) (tail++ & mask)].copy(e);
+            notEmpty.signal();
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Drops the oldest waiting event which is not fatal. The events before
+     * it move up by one slot, so that the order is kept. The caller holds
+     * the lock.
+     *
+     * @return false, if every waiting event is fatal
+     */
+    private boolean dropOldest() {
+        for (long s = head; s != tail; s++) {
+            final LogEvent d = slots[(int) (s & mask)];
+            if (d.getLevel() < Log.LEVEL_FATAL) {
+                d.clear();
+                for (; s != head; s--) {
+                    slots[(int) (s & mask)] = slots[(int) ((s - 1) & mask)];
+                }
+                slots[(int) (head++ & mask)] = d;
+                dropped++;
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Waits until every event offered so far has been handled.
+     */
+    public void flush() {
+        if (Thread.currentThread() == writer) {
+            return;
+        }
+        lock.lock();
+        try {
+            while ((head != tail || busy) && !stopped) {
+                drained.awaitUninterruptibly();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Stops the writer thread after it has handled all waiting events. As
+     * long as the writer makes progress, the caller waits for it; a writer
+     * which hangs on one event for 5 seconds is stopped, and the events it
+     * left behind are handled by the caller.
+     *
+     * @return number of dropped events
+     */
+    public long close() {
+        lock.lock();
+        try {
+            if (closed) {
+                return dropped;
+            }
+            closed = true;
+            notEmpty.signalAll();
+            notFull.signalAll();
+        } finally {
+            lock.unlock();
+        }
+        long last = -1;
+        while (writer.isAlive()) {
+            final long h;
+            lock.lock();
+            try {
+                h = head;
+            } finally {
+                lock.unlock();
+            }
+            if (h == last) {
+                break; // no progress
+            }
+            last = h;
+            try {
+                writer.join(TimeUnit.SECONDS.toMillis(5));
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+        }
+        lock.lock();
+        try {
+            stopped = true;
+        } finally {
+            lock.unlock();
+        }
+        final LogEvent e = new LogEvent();
+        while (poll(e)) {
+            try {
+                handler.handle(e);
+            } catch (RuntimeException ex) {
+                ex.printStackTrace();
+            } catch (Error ex) {
+                // e.g. the error which stopped the writer, the rest is
+                // still handled
+                ex.printStackTrace();
+            }
+            e.clear();
+        }
+        return getDropped();
+    }
+
+    public long getDropped() {
+        lock.lock();
+        try {
+            return dropped;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private boolean poll(final LogEvent e) {
+        lock.lock();
+        try {
+            if (head == tail) {
+                return false;
+            }
+            final LogEvent slot = slots[(int) (head++ & mask)];
+            e.copy(slot);
+            slot.clear();
+            notFull.signal();
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+ /* ------------------------------- Writer --------------------------------- */
+
+    private class Writer extends Thread {
+
+        private Writer() {
+            super("Log Writer");
+            setDaemon(true);
+        }
+
+        @Override
+        public void run() {
+            final LogEvent e = new LogEvent();
+            try {
+                while (true) {
+                    lock.lock();
+                    try {
+                        busy = false;
+                        if (stopped) {
+                            return;
+                        }
+                        while (head == tail) {
+                            drained.signalAll();
+                            if (closed) {
+                                return;
+                            }
+                            notEmpty.await();
+                        }
+                        final LogEvent slot = slots[(int) (head++ & mask)];
+                        e.copy(slot);
+                        slot.clear();
+                        busy = true;
+                        notFull.signal();
+                    } finally {
+                        lock.unlock();
+                    }
+                    try {
+                        handler.handle(e);
+                    } catch (RuntimeException ex) {
+                        ex.printStackTrace();
+                    }
+                    e.clear();
+                }
+            } catch (InterruptedException ex) {
+            } finally {
+                // also reached if the handler throws an error, the waiting
+                // producers handle their events on their own then
+                lock.lock();
+                try {
+                    busy = false;
+                    stopped = true;
+                    notFull.signalAll();
+                    drained.signalAll();
+                } finally {
+                    lock.unlock();
+                }
+            }
+        }
+
+    }
+
+}
@@ -0,0 +1,109 @@
+/*
+ * Copyright (c) 2011, Stefan Neubert <akjiaer@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package ca.akjiaer.dval.log;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+/**
+ * Keeps the last events of every level in preallocated slots, unformatted
+ * and with their raw arguments. The events are formatted not until
+ * {@link #dump(Writer)} is called, e.g. after a crash.
+ * <p>
+ * Recording takes an atomic increment and an uncontended lock of one slot;
+ * a slot is overwritten once the recorder has wrapped around.
+ *
+ * @author Stefan Neubert
+ * @version 1.0 2011-04-30
+ * @since 0.11.0
+ */
+public class FlightRecorder {
+
+    private final Slot[] slots;
+    private final int mask;
+    private final AtomicLong next = new AtomicLong();
+
+    /**
+     * @param capacity number of kept events, rounded up to a power of two
+     */
+    public FlightRecorder(final int capacity) {
+        if (capacity < 1 || capacity > 1 << 20) {
+            throw new IllegalArgumentException("Capacity must be between 1 and 2^20!");
+        }
+        final int size = Integer.highestOneBit(capacity - 1) << 1;
+        slots = new Slot[Math.max(size, 1)];
+        for (int i = 0; i < slots.length; i++) {
+            slots[i] = new Slot();
+        }
+        mask = slots.length - 1;
+    }
+
+    public int getCapacity() {
+        return slots.length;
+    }
+
+    public void record(final long time, final int level, final Class c,
+                       final String message, final Object[] args,
+                       final Supplier<String> supplier, final Throwable thrown) {
+        final long seq = next.getAndIncrement();
+        final Slot slot = slots[(int) seq & mask];
+        synchronized (slot) {
+            slot.seq = seq;
+            slot.event.set(time, level, c, message, args, supplier, thrown);
+            slot.event.setThread(Thread.currentThread());
+        }
+    }
+
+    /**
+     * Formats the recorded events from the oldest to the newest one. Events
+     * recorded during the dump may be missing.
+     *
+     * @return number of written events
+     */
+    public int dump(final Writer out) throws IOException {
+        final long last = next.get();
+        final LogEvent e = new LogEvent();
+        final TextLayout layout = new TextLayout();
+        int count = 0;
+        for (long seq = Math.max(0, last - slots.length); seq < last; seq++) {
+            final Slot slot = slots[(int) seq & mask];
+            synchronized (slot) {
+                if (slot.seq != seq) {
+                    continue;
+                }
+                e.copy(slot.event);
+            }
+            final int length = layout.format(e);
+            out.write(layout.getChars(), 0, length);
+            count++;
+        }
+        e.clear();
+        return count;
+    }
+
+ /* -------------------------------- Slot ---------------------------------- */
+
+    private static class Slot {
+
+        private final LogEvent event = new LogEvent();
+        private long seq = -1;
+
+    }
+
+}
@@ -0,0 +1,225 @@
+/*
+ * Copyright (c) 2011, Stefan Neubert <akjiaer@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package ca.akjiaer.dval.log;
+
+import java.util.Calendar;
+import java.util.TimeZone;
+
+/**
+ * Formats every log event to a single line JSON object (JSON lines):
+ * <pre>{"time":"2011-04-29T10:15:30.123Z","level":"INFO","class":"a.B",
+ * "thread":"main","message":"...","exception":{"class":"...","message":"...",
+ * "frames":[{"class":"...","method":"...","file":"...","line":1}],
+ * "cause":{...}}}</pre>
+ * Keys without value are left out. The object is streamed directly into
+ * the buffer, nothing is built in between.
+ *
+ * @author Stefan Neubert
+ * @version 1.0 2011-04-29
+ * @since 0.11.0
+ */
+public class JsonLayout extends Layout {
+
+    private final static String[] LEVELS = {
+        "TRACE", "DEBUG", "INFO", "WARNING", "ERROR", "FATAL"
+    };
+
+    private final static String BREAK_LINE = System.getProperty("line.separator");
+    private final static char[] HEX = "0123456789abcdef".toCharArray();
+
+    /** Maximum number of nested causes */
+    private final static int MAX_CAUSES = 16;
+
+ /* ----------------------------- JsonLayout ------------------------------- */
+
+    private final StringBuilder msg = new StringBuilder(128);
+    private final Calendar calendar = Calendar.getInstance(TimeZone.getTimeZone("UTC"));
+    private final char[] stamp = "0000-00-00T00:00:00.".toCharArray();
+    private long second = Long.MIN_VALUE;
+
+    public JsonLayout() {
+    }
+
+    @Override
+    public int format(final LogEvent e) {
+        sb.setLength(0);
+        sb.append('{');
+        appendTime(e.getTime());
+        final int level = e.getLevel();
+        if (level >= 0 && level < LEVELS.length) {
+            sb.append(",\"level\":\"").append(LEVELS[level]).append('"');
+        }
+        final Class c = e.getSource();
+        final String name = c == null ? e.getSourceName() : c.getName();
+        if (name != null) {
+            appendKey("class");
+            appendString(name);
+        }
+        final Thread thread = e.getThread();
+        if (thread != null) {
+            appendKey("thread");
+            appendString(thread.getName());
+        }
+        msg.setLength(0);
+        e.appendMessage(msg);
+        appendKey("message");
+        appendString(msg);
+        final Throwable thrown = e.getThrown();
+        if (thrown != null) {
+            appendKey("exception");
+            try {
+                appendThrowable(thrown);
+            } catch (RuntimeException ex) {
+                sb.append("null");
+            }
+        }
+        sb.append('}');
+        sb.append(BREAK_LINE);
+        return finish();
+    }
+
+    private void appendTime(final long time) {
+        final long s = time >= 0 ? time / 1000 : (time - 999) / 1000;
+        if (s != second) {
+            second = s;
+            calendar.setTimeInMillis(time);
+            put(0,  4, calendar.get(Calendar.YEAR));
+            put(5,  2, calendar.get(Calendar.MONTH) + 1);
+            put(8,  2, calendar.get(Calendar.DAY_OF_MONTH));
+            put(11, 2, calendar.get(Calendar.HOUR_OF_DAY));
+            put(14, 2, calendar.get(Calendar.MINUTE));
+            put(17, 2, calendar.get(Calendar.SECOND));
+        }
+        final int millis = (int) (time - s * 1000);
+        sb.append("\"time\":\"");
+        sb.append(stamp);
+        sb.append((char) ('0' + millis / 100));
+        sb.append((char) ('0' + millis / 10 % 10));
+        sb.append((char) ('0' + millis % 10));
+        sb.append("Z\"");
+    }
+
+    private void put(final int offset, final int digits, int value) {
+        for (int i = offset + digits - 1; i >= offset; i--) {
+            stamp[i] = (char) ('0' + value % 10);
+            value /= 10;
+        }
+    }
+
+    /**
+     * Appends the throwable with its frames and causes. Frames a cause has in
+     * common with its enclosing throwable are left out, like in
+     * <code>printStackTrace</code>.
+     */
+    private void appendThrowable(final Throwable thrown) {
+        Throwable t = thrown;
+        StackTraceElement[] enclosing = null;
+        int depth = 0;
+        for (; t != null && depth < MAX_CAUSES; depth++) {
+            if (depth > 0) {
+                appendKey("cause");
+            }
+            sb.append("{\"class\":");
+            appendString(t.getClass().getName());
+            final String message = t.getMessage();
+            if (message != null) {
+                appendKey("message");
+                appendString(message);
+            }
+            final StackTraceElement[] frames = t.getStackTrace();
+            int n = frames.length;
+            if (enclosing != null) {
+                for (int m = enclosing.length - 1; n > 0 && m >= 0
+                        && frames[n - 1].equals(enclosing[m]); m--) {
+                    n--;
+                }
+            }
+            appendKey("frames");
+            sb.append('[');
+            for (int i = 0; i < n; i++) {
+                if (i > 0) {
+                    sb.append(',');
+                }
+                appendFrame(frames[i]);
+            }
+            sb.append(']');
+            if (n < frames.length) {
+                sb.append(",\"common\":").append(frames.length - n);
+            }
+            enclosing = frames;
+            final Throwable cause = t.getCause();
+            t = cause == t ? null : cause;
+        }
+        for (int i = 0; i < depth; i++) {
+            sb.append('}');
+        }
+    }
+
+    private void appendFrame(final StackTraceElement frame) {
+        sb.append("{\"class\":");
+        appendString(frame.getClassName());
+        appendKey("method");
+        appendString(frame.getMethodName());
+        final String file = frame.getFileName();
+        if (file != null) {
+            appendKey("file");
+            appendString(file);
+        }
+        final int line = frame.getLineNumber();
+        if (line >= 0) {
+            sb.append(",\"line\":").append(line);
+        } else if (line == -2) {
+            sb.append(",\"native\":true");
+        }
+        sb.append('}');
+    }
+
+    private void appendKey(final String key) {
+        sb.append(',').append('"').append(key).append('"').append(':');
+    }
+
+    /**
+     * Appends the value as JSON string, quoted and escaped.
+     */
+    private void appendString(final CharSequence value) {
+        sb.append('"');
+        final int length = value.length();
+        int start = 0;
+        for (int i = 0; i < length; i++) {
+            final char ch = value.charAt(i);
+            if (ch >= 0x20 && ch != '"' && ch != '\\' && ch != 0x2028 && ch != 0x2029) {
+                continue;
+            }
+            sb.append(value, start, i);
+            start = i + 1;
+            switch (ch) {
+                case '"':  sb.append("\\\""); break;
+                case '\\': sb.append("\\\\"); break;
+                case '\n': sb.append("\\n"); break;
+                case '\r': sb.append("\\r"); break;
+                case '\t': sb.append("\\t"); break;
+                default:
+                    sb.append("\\u");
+                    sb.append(HEX[ch >> 12 & 0xF]).append(HEX[ch >> 8 & 0xF]);
+                    sb.append(HEX[ch >> 4 & 0xF]).append(HEX[ch & 0xF]);
+            }
+        }
+        sb.append(value, start, length);
+        sb.append('"');
+    }
+
+}
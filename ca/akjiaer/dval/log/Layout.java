@@ -0,0 +1,61 @@
+/*
+ * Copyright (c) 2011, Stefan Neubert <akjiaer@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package ca.akjiaer.dval.log;
+
+/**
+ * Formats log events into a reused char buffer. Layouts are not thread-safe,
+ * so every thread needs its own instance.
+ *
+ * @author Stefan Neubert
+ * @version 1.0 2011-04-29
+ * @since 0.11.0
+ */
+public abstract class Layout {
+
+    protected final StringBuilder sb = new StringBuilder(256);
+    private char[] chars = new char[256];
+
+    /**
+     * Formats the event into the internal buffer.
+     *
+     * @return number of chars, see {@link #getChars()}
+     */
+    public abstract int format(final LogEvent e);
+
+    /**
+     * @return buffer of the last formatted event, only valid until the next
+     *         call of {@link #format}
+     */
+    public char[] getChars() {
+        return chars;
+    }
+
+    /**
+     * Copies the builder into the char buffer.
+     *
+     * @return number of chars
+     */
+    protected int finish() {
+        final int length = sb.length();
+        if (chars.length < length) {
+            chars = new char[Math.max(length, chars.length * 2)];
+        }
+        sb.getChars(0, length, chars, 0);
+        return length;
+    }
+
+}
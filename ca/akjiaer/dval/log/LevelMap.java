@@ -0,0 +1,73 @@
+/*
+ * Copyright (c) 2011, Stefan Neubert <akjiaer@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package ca.akjiaer.dval.log;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Log levels of classes and packages. The level of a class is resolved once
+ * from the most specific configured name (class, outer class, package,
+ * parent package, ...) and cached per class afterwards. Instances are
+ * immutable, a new configuration needs a new map.
+ *
+ * @author Stefan Neubert
+ * @version 1.0 2011-04-25
+ * @since 0.11.0
+ */
+public class LevelMap extends ClassValue<Integer> {
+
+    /** Resolved level of classes without configuration */
+    public final static Integer UNSET = -1;
+
+    private final Map<String, Integer> levels;
+
+    public LevelMap() {
+        this.levels = new HashMap(0);
+    }
+
+    /**
+     * @param levels level by class or package name
+     */
+    public LevelMap(final Map<String, Integer> levels) {
+        this.levels = new HashMap(levels);
+    }
+
+    public boolean isEmpty() {
+        return levels.isEmpty();
+    }
+
+    /**
+     * @return configured level or <code>UNSET</code>
+     */
+    @Override
+    protected Integer computeValue(Class<?> c) {
+        String name = c.getName();
+        while (true) {
+            final Integer level = levels.get(name);
+            if (level != null) {
+                return level;
+            }
+            final int i = Math.max(name.lastIndexOf('.'), name.lastIndexOf('$'));
+            if (i < 0) {
+                return UNSET;
+            }
+            name = name.substring(0, i);
+        }
+    }
+
+}
@@ -0,0 +1,238 @@
+/*
+ * Copyright (c) 2011, Stefan Neubert <akjiaer@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package ca.akjiaer.dval.log;
+
+import java.util.Arrays;
+import java.util.function.Supplier;
+
+/**
+ * A single log event. Instances are mutable and meant to be reused, e.g. as
+ * preallocated slots of an {@link EventRing}.
+ * <p>
+ * The message is kept as it was given: either a plain string, a template
+ * with <code>{}</code> placeholders and its arguments or a supplier. It is
+ * built not until a layout asks for it.
+ *
+ * @author Stefan Neubert
+ * @version 1.3 2011-04-29
+ * @since 0.11.0
+ */
+public class LogEvent {
+
+    private final static Object[] NO_ARGS = new Object[0];
+
+    /**
+     * Appends the template to the builder and replaces each <code>{}</code>
+     * with the next argument. Surplus arguments are ignored, surplus
+     * placeholders are kept.
+     */
+    public static void appendTemplate(final StringBuilder sb, final String template,
+                                      final Object[] args) {
+        final int length = template.length();
+        int start = 0, next = 0;
+        if (args != null) {
+            for (int i; next < args.length && (i = template.indexOf("{}", start)) > -1; ) {
+                sb.append(template, start, i);
+                appendArg(sb, args[next++]);
+                start = i + 2;
+            }
+        }
+        sb.append(template, start, length);
+    }
+
+    private static void appendArg(final StringBuilder sb, final Object arg) {
+        try {
+            if (arg instanceof Object[]) {
+                sb.append(Arrays.deepToString((Object[]) arg));
+            } else {
+                sb.append(arg);
+            }
+        } catch (RuntimeException ex) {
+            sb.append('[').append(arg.getClass().getName()).append(".toString() failed]");
+        }
+    }
+
+    /**
+     * @return number of <code>{}</code> placeholders in the template
+     */
+    public static int countPlaceholders(final String template) {
+        int n = 0;
+        for (int i = 0; (i = template.indexOf("{}", i)) > -1; i += 2) {
+            n++;
+        }
+        return n;
+    }
+
+ /* ------------------------------ LogEvent -------------------------------- */
+
+    private long time;
+    private int level;
+    private Class source;
+    private String sourceName;
+    private String message;
+    private Object[] args;
+    private Supplier<String> supplier;
+    private Throwable thrown;
+    private Thread thread;
+
+    public LogEvent() {
+    }
+
+    public void set(final long time, final int level, final Class source,
+                    final String message, final Throwable thrown) {
+        set(time, level, source, message, null, null, thrown);
+    }
+
+    /**
+     * @param message plain message or template, if arguments are given
+     * @param args arguments of the template or null
+     * @param supplier supplier of the message, used if message is null
+     */
+    public void set(final long time, final int level, final Class source,
+                    final String message, final Object[] args,
+                    final Supplier<String> supplier, final Throwable thrown) {
+        this.time = time;
+        this.level = level;
+        this.source = source;
+        this.sourceName = null;
+        this.message = message;
+        this.args = args;
+        this.supplier = supplier;
+        this.thrown = thrown;
+        this.thread = null;
+    }
+
+    public void copy(final LogEvent e) {
+        set(e.time, e.level, e.source, e.message, e.args, e.supplier, e.thrown);
+        sourceName = e.sourceName;
+        thread = e.thread;
+    }
+
+    /**
+     * Sets the thread which published the event. Its name is read not until
+     * a layout asks for it.
+     */
+    public void setThread(final Thread thread) {
+        this.thread = thread;
+    }
+
+    /**
+     * Sets the name which is shown instead of the simple name of the source
+     * class, e.g. for events read back from a binary log.
+     */
+    public void setSourceName(final String name) {
+        this.sourceName = name;
+    }
+
+    /** Drops all references, so that a waiting slot does not hold garbage. */
+    public void clear() {
+        set(0, 0, null, null, null, null, null);
+    }
+
+    /**
+     * Appends the message to the builder. A supplier is asked only once,
+     * its result replaces it.
+     */
+    public void appendMessage(final StringBuilder sb) {
+        if (message == null && supplier != null) {
+            resolve();
+        }
+        if (message != null) {
+            if (args == null) {
+                sb.append(message);
+            } else {
+                appendTemplate(sb, message, args);
+            }
+        }
+    }
+
+    private void resolve() {
+        try {
+            message = supplier.get();
+        } catch (RuntimeException ex) {
+            message = "[Message supplier failed: " + ex + "]";
+        }
+        supplier = null;
+    }
+
+ /* ------------------------------ Getter ---------------------------------- */
+
+    public long getTime() {
+        return time;
+    }
+
+    public int getLevel() {
+        return level;
+    }
+
+    public Class getSource() {
+        return source;
+    }
+
+    /**
+     * @return the name set by {@link #setSourceName}, the simple name of the
+     *         source class otherwise
+     */
+    public String getSourceName() {
+        if (sourceName != null || source == null) {
+            return sourceName;
+        }
+        return TextLayout.getName(source);
+    }
+
+    /**
+     * @return the built message, null if there is none
+     */
+    public String getMessage() {
+        if (message == null && supplier != null) {
+            resolve();
+        }
+        if (message == null || args == null) {
+            return message;
+        }
+        final StringBuilder sb = new StringBuilder(message.length() + 16 * args.length);
+        appendTemplate(sb, message, args);
+        return sb.toString();
+    }
+
+    /**
+     * @return the message as it was given, i.e. the template if there are
+     *         arguments
+     */
+    public String getTemplate() {
+        if (message == null && supplier != null) {
+            resolve();
+        }
+        return message;
+    }
+
+    public Object[] getArgs() {
+        return args == null ? NO_ARGS : args;
+    }
+
+    public Throwable getThrown() {
+        return thrown;
+    }
+
+    /**
+     * @return publishing thread, null if unknown
+     */
+    public Thread getThread() {
+        return thread;
+    }
+
+}
@@ -0,0 +1,79 @@
+/*
+ * Copyright (c) 2011, Stefan Neubert <akjiaer@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package ca.akjiaer.dval.log;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Keeps the last formatted events in memory, e.g. for a log view of the
+ * application or for tests.
+ *
+ * @author Stefan Neubert
+ * @version 1.0 2011-05-01
+ * @since 0.11.0
+ */
+public class MemorySink extends Sink {
+
+    private final String[] lines;
+    private int next;
+    private int size;
+
+    /**
+     * @param capacity number of kept events
+     */
+    public MemorySink(final int capacity) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("Capacity must be positive!");
+        }
+        this.lines = new String[capacity];
+    }
+
+    @Override
+    public synchronized void write(final char[] chars, final int off, final int len,
+                                   final int level) {
+        lines[next] = new String(chars, off, len);
+        next = (next + 1) % lines.length;
+        if (size < lines.length) {
+            size++;
+        }
+    }
+
+    /**
+     * @return kept events from the oldest to the newest one
+     */
+    public synchronized List<String> getLines() {
+        final List<String> list = new ArrayList(size);
+        for (int i = next - size + lines.length; list.size() < size; i++) {
+            list.add(lines[i % lines.length]);
+        }
+        return list;
+    }
+
+    public synchronized void clear() {
+        for (int i = 0; i < lines.length; i++) {
+            lines[i] = null;
+        }
+        next = 0;
+        size = 0;
+    }
+
+    @Override
+    public void close() {
+    }
+
+}
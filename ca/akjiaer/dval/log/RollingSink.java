@@ -0,0 +1,289 @@
+/*
+ * Copyright (c) 2011, Stefan Neubert <akjiaer@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package ca.akjiaer.dval.log;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.TimeZone;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * {@link ChannelSink} which rolls the log file by size and/or by day.
+ * <p>
+ * The full file is renamed to <code>&lt;file&gt;.&lt;time&gt;.roll</code>
+ * and a new file is opened while the lock is held, so a line always ends up
+ * complete in one of both files. Shifting the generations
+ * (<code>&lt;file&gt;.1.gz</code> is the newest) and compressing the rolled
+ * file is done by a low priority background thread.
+ *
+ * @author Stefan Neubert
+ * @version 1.1 2011-05-16
+ * @since 0.11.0
+ */
+public class RollingSink extends ChannelSink {
+
+    private final static long DAY = TimeUnit.DAYS.toMillis(1);
+    private final static String ROLLED = ".roll";
+
+    /**
+     * @param s size in bytes, with an optional K, M or G suffix
+     */
+    public static long parseSize(final String s) {
+        if (s == null || s.isEmpty()) {
+            return 0;
+        }
+        long factor = 1;
+        String n = s.trim();
+        switch (Character.toUpperCase(n.charAt(n.length() - 1))) {
+            case 'K': factor = 1L << 10; break;
+            case 'M': factor = 1L << 20; break;
+            case 'G': factor = 1L << 30; break;
+        }
+        if (factor > 1) {
+            n = n.substring(0, n.length() - 1).trim();
+        }
+        return Long.parseLong(n) * factor;
+    }
+
+    /**
+     * A batch is never split, so the buffers are kept small compared to the
+     * maximum size. A file exceeds it by one batch at most.
+     */
+    private static int bufferSize(final long maxSize) {
+        if (maxSize <= 0) {
+            return DEFAULT_BUFFER_SIZE;
+        }
+        return (int) Math.max(1024, Math.min(DEFAULT_BUFFER_SIZE, maxSize / 16));
+    }
+
+    private static long day(final long time) {
+        return (time + TimeZone.getDefault().getOffset(time)) / DAY;
+    }
+
+ /* ---------------------------- RollingSink ------------------------------- */
+
+    private final ThreadPoolExecutor archiver;
+    private final long maxSize;
+    private final boolean daily;
+    private final int keep;
+    private long size;
+    private long day;
+
+    /**
+     * @param maxSize roll if the file would grow beyond this size, 0 to
+     *                disable rolling by size
+     * @param daily roll with the first event of a new day
+     * @param keep number of compressed generations to keep
+     */
+    public RollingSink(final File file, final int sync, final long interval,
+                       final long maxSize, final boolean daily, final int keep)
+                       throws IOException {
+        super(file, sync, interval, bufferSize(maxSize), true);
+        if (maxSize < 0 || keep < 0) {
+            throw new IllegalArgumentException("Size and generations cannot be negative!");
+        }
+        this.maxSize = maxSize;
+        this.daily = daily;
+        this.keep = keep;
+        this.size = channel.size();
+        this.day = day(size > 0 ? file.lastModified() : System.currentTimeMillis());
+        this.archiver = new ThreadPoolExecutor(1, 1, 10, TimeUnit.SECONDS,
+                                               new LinkedBlockingQueue<Runnable>(),
+                                               new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                final Thread t = new Thread(r, "Log Archiver");
+                t.setPriority(Thread.MIN_PRIORITY);
+                t.setDaemon(true);
+                return t;
+            }
+        });
+        archiver.allowCoreThreadTimeOut(true);
+        archiveLeftovers();
+    }
+
+    @Override
+    protected void beforeWrite(final int length) throws IOException {
+        final long today = daily ? day(System.currentTimeMillis()) : day;
+        if (size > 0 && (today != day || (maxSize > 0 && size + length > maxSize))) {
+            roll();
+            day = today;
+        }
+        size += length;
+    }
+
+    private void roll() throws IOException {
+        final String prefix = file.getPath() + '.' + System.currentTimeMillis();
+        File rolled = new File(prefix + ROLLED);
+        for (int i = 1; rolled.exists(); i++) {
+            rolled = new File(prefix + '-' + i + ROLLED);
+        }
+        boolean renamed = false;
+        try {
+            channel.close();
+            renamed = file.renameTo(rolled);
+        } finally {
+            // the sink must never be left without a channel
+            channel = open(!renamed);
+        }
+        if (renamed) {
+            size = 0;
+            archiver.execute(new Archive(rolled));
+        } else {
+            size = channel.size();
+            System.err.println("Cannot roll log file '" + file + "'!");
+        }
+    }
+
+    /**
+     * Archives rolled files which were left behind by a previous run, oldest
+     * first, so that the generations keep their order.
+     */
+    private void archiveLeftovers() {
+        final File dir = file.getAbsoluteFile().getParentFile();
+        final String prefix = file.getName() + '.';
+        final File[] files = dir == null ? null : dir.listFiles(new FilenameFilter() {
+            @Override
+            public boolean accept(File d, String name) {
+                return name.startsWith(prefix) && name.endsWith(ROLLED);
+            }
+        });
+        if (files != null) {
+            final int start = prefix.length();
+            Arrays.sort(files, new Comparator<File>() {
+                @Override
+                public int compare(File a, File b) {
+                    final long[] x = stamp(a.getName(), start);
+                    final long[] y = stamp(b.getName(), start);
+                    if (x[0] != y[0]) {
+                        return x[0] < y[0] ? -1 : 1;
+                    }
+                    return x[1] < y[1] ? -1 : (x[1] == y[1] ? 0 : 1);
+                }
+            });
+            for (File f : files) {
+                archiver.execute(new Archive(f));
+            }
+        }
+    }
+
+    /**
+     * @return time and counter of a rolled file name
+     *         <code>&lt;file&gt;.&lt;time&gt;[-&lt;counter&gt;].roll</code>,
+     *         zero if missing or invalid
+     */
+    private static long[] stamp(final String name, final int start) {
+        final long[] stamp = new long[2];
+        final int end = name.length() - ROLLED.length();
+        if (end < start) {
+            return stamp;
+        }
+        final String s = name.substring(start, end);
+        final int i = s.indexOf('-');
+        try {
+            stamp[0] = Long.parseLong(i < 0 ? s : s.substring(0, i));
+            stamp[1] = i < 0 ? 0 : Long.parseLong(s.substring(i + 1));
+        } catch (NumberFormatException ex) {}
+        return stamp;
+    }
+
+    /**
+     * Closes the file and waits for the archiver to finish.
+     */
+    @Override
+    public void close() throws IOException {
+        try {
+            super.close();
+        } finally {
+            archiver.shutdown();
+            try {
+                archiver.awaitTermination(30, TimeUnit.SECONDS);
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+ /* ------------------------------ Archive --------------------------------- */
+
+    private class Archive implements Runnable {
+
+        private final File rolled;
+
+        private Archive(final File rolled) {
+            this.rolled = rolled;
+        }
+
+        private File generation(final int i) {
+            return new File(file.getPath() + '.' + i + ".gz");
+        }
+
+        @Override
+        public void run() {
+            if (keep == 0) {
+                rolled.delete();
+                return;
+            }
+            // the generations are only shifted once the new one is complete,
+            // otherwise the rolled file is kept for the next start
+            final File tmp = new File(file.getPath() + ".1.gz.tmp");
+            InputStream in = null;
+            OutputStream out = null;
+            try {
+                in = new FileInputStream(rolled);
+                out = new GZIPOutputStream(new FileOutputStream(tmp), 64 * 1024);
+                final byte[] buffer = new byte[64 * 1024];
+                for (int n; (n = in.read(buffer)) > -1;) {
+                    out.write(buffer, 0, n);
+                }
+                out.close();
+                out = null;
+            } catch (IOException ex) {
+                System.err.println("Cannot compress rolled log file '" + rolled + "': " + ex);
+                tmp.delete();
+                return;
+            } finally { if (in != null) try { in.close(); } catch (IOException ex) {}
+                        if (out != null) try { out.close(); } catch (IOException ex) {}}
+            generation(keep).delete();
+            for (int i = keep - 1; i > 0; i--) {
+                final File f = generation(i);
+                if (f.exists()) {
+                    f.renameTo(generation(i + 1));
+                }
+            }
+            if (tmp.renameTo(generation(1))) {
+                rolled.delete();
+            } else {
+                System.err.println("Cannot rename compressed log file '" + tmp + "'!");
+                tmp.delete();
+            }
+        }
+
+    }
+
+}
@@ -0,0 +1,71 @@
+/*
+ * Copyright (c) 2011, Stefan Neubert <akjiaer@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package ca.akjiaer.dval.log;
+
+import java.io.IOException;
+
+/**
+ * Destination of formatted log lines. Implementations have to be
+ * thread-safe. Every sink has its own level threshold and layout; how it
+ * buffers is up to the implementation.
+ *
+ * @author Stefan Neubert
+ * @version 1.2 2011-05-01
+ * @since 0.11.0
+ */
+public abstract class Sink {
+
+    private volatile int level;
+    private volatile boolean json;
+
+    /**
+     * @return lowest level which is written to this sink
+     */
+    public int getLevel() {
+        return level;
+    }
+
+    public void setLevel(final int level) {
+        this.level = level;
+    }
+
+    /**
+     * @return true, if the sink wants events in the {@link JsonLayout}
+     *         instead of the {@link TextLayout}
+     */
+    public boolean isJson() {
+        return json;
+    }
+
+    public void setJson(final boolean json) {
+        this.json = json;
+    }
+
+    /**
+     * Writes one formatted event. The chars are only valid during the call.
+     *
+     * @param level level of the event, see <code>Log.LEVEL_*</code>
+     */
+    public abstract void write(final char[] chars, final int off, final int len,
+                               final int level) throws IOException;
+
+    public void flush() throws IOException {
+    }
+
+    public abstract void close() throws IOException;
+
+}
@@ -0,0 +1,354 @@
+/*
+ * Copyright (c) 2011, Stefan Neubert <akjiaer@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package ca.akjiaer.dval.log;
+
+import java.lang.ref.WeakReference;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Decides whether an event is published at all, before anything of it is
+ * formatted. Three filters are applied in this order:
+ * <ul>
+ * <li><b>Sampling:</b> TRACE and DEBUG can be published with a probability
+ *     only.</li>
+ * <li><b>Deduplication:</b> events with the same class, message template
+ *     and exception type are published once per time window, the number
+ *     of suppressed events is reported with the first event of any kind
+ *     after the window.</li>
+ * <li><b>Rate limit:</b> a token bucket per level, the number of dropped
+ *     events is reported with the next published event of the level.</li>
+ * </ul>
+ * Events of level FATAL are never suppressed. Configure an instance before
+ * it is passed to <code>Log.setSuppressor</code>.
+ *
+ * @author Stefan Neubert
+ * @version 1.1 2011-05-15
+ * @since 0.11.0
+ */
+public class Suppressor {
+
+    private final static int LEVELS = 6;
+    private final static int DEBUG = 1;
+    private final static int FATAL = LEVELS - 1;
+    private final static int SLOTS = 1024;
+
+    /**
+     * Receives the summaries of suppressed or dropped events.
+     */
+    public static interface Reporter {
+
+        /**
+         * @param template template or message of the suppressed events, null
+         *                 for events dropped by the rate limit
+         */
+        public void report(final int level, final Class c, final String template,
+                           final long count);
+
+    }
+
+ /* ----------------------------- Suppressor ------------------------------- */
+
+    private final Slot[] slots = new Slot[SLOTS];
+    private final Bucket[] buckets = new Bucket[LEVELS];
+    private final double[] sampling = new double[DEBUG + 1];
+    private final Reporter reporter;
+    private long window;
+    /** Earliest end of a window with suppressed events, guarded by this */
+    private volatile long due = Long.MAX_VALUE;
+
+    public Suppressor(final Reporter reporter) {
+        if (reporter == null) {
+            throw new IllegalArgumentException("Reporter cannot be null!");
+        }
+        this.reporter = reporter;
+        for (int i = 0; i < SLOTS; i++) {
+            slots[i] = new Slot();
+        }
+        for (int i = 0; i <= DEBUG; i++) {
+            sampling[i] = 1;
+        }
+    }
+
+    /**
+     * @param millis time window of deduplication, 0 to disable it
+     */
+    public void setWindow(final long millis) {
+        if (millis < 0) {
+            throw new IllegalArgumentException("Window cannot be negative!");
+        }
+        this.window = millis;
+    }
+
+    /**
+     * @param perSecond events per second, 0 to disable the limit
+     * @param burst number of events which may exceed the rate at once
+     */
+    public void setRate(final int level, final double perSecond, final int burst) {
+        checkLevel(level);
+        if (perSecond < 0 || burst < 1) {
+            throw new IllegalArgumentException("Invalid rate limit!");
+        }
+        buckets[level] = perSecond == 0 ? null : new Bucket(perSecond, burst);
+    }
+
+    /**
+     * @param level TRACE or DEBUG
+     * @param probability probability between 0 and 1, that an event of the
+     *                    level is published
+     */
+    public void setSampling(final int level, final double probability) {
+        if (level < 0 || level > DEBUG) {
+            throw new IllegalArgumentException("Only TRACE and DEBUG can be sampled!");
+        }
+        if (probability < 0 || probability > 1) {
+            throw new IllegalArgumentException("Probability must be between 0 and 1!");
+        }
+        sampling[level] = probability;
+    }
+
+    private static void checkLevel(final int level) {
+        if (level < 0 || level >= FATAL) {
+            throw new IllegalArgumentException("Level must be between TRACE and ERROR!");
+        }
+    }
+
+    /**
+     * @param template message or template, null if the message is not
+     *                 known yet (supplier); such events are not deduplicated
+     * @return false, if the event should be discarded
+     */
+    public boolean accept(final long time, final int level, final Class c,
+                          final String template, final Throwable thrown) {
+        if (time >= due) {
+            expire(time);
+        }
+        if (level < 0 || level >= FATAL) {
+            return true;
+        }
+        final double p = level <= DEBUG ? sampling[level] : 1;
+        if (p < 1 && (p == 0 || ThreadLocalRandom.current().nextDouble() >= p)) {
+            return false;
+        }
+        if (window > 0 && template != null && !dedup(time, level, c, template, thrown)) {
+            return false;
+        }
+        final Bucket b = buckets[level];
+        if (b != null) {
+            if (!b.take(System.nanoTime())) {
+                b.dropped.incrementAndGet();
+                return false;
+            }
+            final long dropped = b.dropped.get() > 0 ? b.dropped.getAndSet(0) : 0;
+            if (dropped > 0) {
+                reporter.report(level, c, null, dropped);
+            }
+        }
+        return true;
+    }
+
+    private boolean dedup(final long time, final int level, final Class c,
+                          final String template, final Throwable thrown) {
+        final Class type = thrown == null ? null : thrown.getClass();
+        int h = template.hashCode();
+        h = 31 * h + (c == null ? 0 : System.identityHashCode(c));
+        h = 31 * h + (type == null ? 0 : System.identityHashCode(type));
+        h ^= h >>> 16;
+        final Slot slot = slots[h & (SLOTS - 1)];
+
+        Class rc = null;
+        String rt = null;
+        int rl = 0;
+        long count = 0;
+        long end = -1;
+        synchronized (slot) {
+            if (slot.matches(c, template, type) && time - slot.start < window) {
+                if (slot.suppressed++ > 0) {
+                    return false;
+                }
+                end = slot.start + window;
+            } else {
+                if (slot.suppressed > 0) {
+                    rc = slot.source();
+                    rt = slot.template;
+                    rl = slot.level;
+                    count = slot.suppressed;
+                }
+                slot.set(time, level, c, template, type);
+            }
+        }
+        if (end >= 0) {
+            schedule(end); // first suppressed event of the window
+            return false;
+        }
+        if (count > 0) {
+            reporter.report(rl, rc, rt, count);
+        }
+        return true;
+    }
+
+    private void schedule(final long end) {
+        synchronized (this) {
+            if (end < due) {
+                due = end;
+            }
+        }
+    }
+
+    /**
+     * Reports the suppressed events of every window which has ended.
+     */
+    private void expire(final long time) {
+        synchronized (this) {
+            if (time < due) {
+                return; // expired by another thread
+            }
+            due = Long.MAX_VALUE;
+        }
+        long next = Long.MAX_VALUE;
+        for (Slot slot : slots) {
+            Class rc;
+            String rt;
+            int rl;
+            long count;
+            synchronized (slot) {
+                if (slot.suppressed == 0) {
+                    continue;
+                }
+                final long end = slot.start + window;
+                if (time < end) {
+                    next = Math.min(next, end);
+                    continue;
+                }
+                rc = slot.source();
+                rt = slot.template;
+                rl = slot.level;
+                count = slot.suppressed;
+                slot.suppressed = 0;
+            }
+            reporter.report(rl, rc, rt, count);
+        }
+        if (next != Long.MAX_VALUE) {
+            schedule(next);
+        }
+    }
+
+    /**
+     * Reports all events which are suppressed by now.
+     */
+    public void flush() {
+        for (Slot slot : slots) {
+            Class rc;
+            String rt;
+            int rl;
+            long count;
+            synchronized (slot) {
+                if (slot.suppressed == 0) {
+                    continue;
+                }
+                rc = slot.source();
+                rt = slot.template;
+                rl = slot.level;
+                count = slot.suppressed;
+                slot.suppressed = 0;
+            }
+            reporter.report(rl, rc, rt, count);
+        }
+        for (int i = 0; i < LEVELS; i++) {
+            final Bucket b = buckets[i];
+            final long dropped = b == null ? 0 : b.dropped.getAndSet(0);
+            if (dropped > 0) {
+                reporter.report(i, null, null, dropped);
+            }
+        }
+    }
+
+ /* -------------------------------- Slot ---------------------------------- */
+
+    /**
+     * Last event of a hash slot; a colliding event replaces it. Classes are
+     * referenced weakly, so that a slot does not keep a module alive.
+     */
+    private static class Slot {
+
+        private WeakReference<Class> source;
+        private String template;
+        private WeakReference<Class> type;
+        private int level;
+        private long start;
+        private long suppressed;
+
+        private static Class get(final WeakReference<Class> r) {
+            return r == null ? null : r.get();
+        }
+
+        private static WeakReference<Class> ref(final WeakReference<Class> r, final Class c) {
+            return c == null ? null : (get(r) == c ? r : new WeakReference(c));
+        }
+
+        private Class source() {
+            return get(source);
+        }
+
+        private boolean matches(final Class c, final String t, final Class x) {
+            return get(source) == c && get(type) == x && (template == t
+                    || (template != null && template.equals(t)));
+        }
+
+        private void set(final long time, final int level, final Class c,
+                         final String t, final Class x) {
+            this.start = time;
+            this.level = level;
+            this.source = ref(source, c);
+            this.template = t;
+            this.type = ref(type, x);
+            this.suppressed = 0;
+        }
+
+    }
+
+ /* ------------------------------- Bucket --------------------------------- */
+
+    private static class Bucket {
+
+        private final AtomicLong dropped = new AtomicLong();
+        private final double perNano;
+        private final double burst;
+        private double tokens;
+        private long last;
+
+        private Bucket(final double perSecond, final int burst) {
+            this.perNano = perSecond / TimeUnit.SECONDS.toNanos(1);
+            this.burst = burst;
+            this.tokens = burst;
+            this.last = System.nanoTime();
+        }
+
+        private synchronized boolean take(final long now) {
+            tokens = Math.min(burst, tokens + (now - last) * perNano);
+            last = now;
+            if (tokens >= 1) {
+                tokens--;
+                return true;
+            }
+            return false;
+        }
+
+    }
+
+}
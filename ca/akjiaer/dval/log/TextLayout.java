@@ -0,0 +1,165 @@
+/*
+ * Copyright (c) 2011, Stefan Neubert <akjiaer@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package ca.akjiaer.dval.log;
+
+import java.io.PrintWriter;
+import java.io.Writer;
+import java.util.Calendar;
+
+/**
+ * Formats log events to the text layout:
+ * <pre>[yyyy-MM-dd HH:mm:ss] LEVEL:    Class: message</pre>
+ * An instance reuses its buffers and is not thread-safe, so every thread
+ * needs its own. Apart from stack traces no object is allocated once the
+ * buffers have grown to their working size.
+ *
+ * @author Stefan Neubert
+ * @version 1.2 2011-04-29
+ * @since 0.11.0
+ */
+public class TextLayout extends Layout {
+
+    private final static String[] LEVELS = {
+        "TRACE:    ", "DEBUG:    ", "INFO:     ",
+        "WARNING:  ", "ERROR:    ", "CRITICAL: "
+    };
+
+    private final static String BREAK_LINE = System.getProperty("line.separator");
+    private final static String NEW_LINE = BREAK_LINE + "                                ";
+
+    private final static ClassValue<String> NAMES = new ClassValue<String>() {
+        @Override
+        protected String computeValue(Class<?> c) {
+            return c.getSimpleName();
+        }
+    };
+
+    public static String getName(final Class c) {
+        return NAMES.get(c);
+    }
+
+ /* ----------------------------- TextLayout ------------------------------- */
+
+    private final StringBuilder msg = new StringBuilder(128);
+    private final Calendar calendar = Calendar.getInstance();
+    private final char[] stamp = "[0000-00-00 00:00:00] ".toCharArray();
+    private final PrintWriter trace = new PrintWriter(new TraceWriter());
+    private long second = Long.MIN_VALUE;
+
+    public TextLayout() {
+    }
+
+    @Override
+    public int format(final LogEvent e) {
+        sb.setLength(0);
+        appendStamp(e.getTime());
+        final int level = e.getLevel();
+        if (level >= 0 && level < LEVELS.length) {
+            sb.append(LEVELS[level]);
+        }
+        final String name = e.getSourceName();
+        if (name != null) {
+            sb.append(name);
+            sb.append(": ");
+        }
+        msg.setLength(0);
+        e.appendMessage(msg);
+        appendLines(msg);
+        final Throwable thrown = e.getThrown();
+        if (thrown != null) {
+            sb.append(BREAK_LINE);
+            sb.append(" ------ Stack Trace -- begin:");
+            sb.append(BREAK_LINE);
+            try {
+                thrown.printStackTrace(trace);
+                trace.flush();
+            } catch (RuntimeException ex) {}
+            sb.append(" ------ Stack Trace -- end.");
+        }
+        sb.append(BREAK_LINE);
+        return finish();
+    }
+
+    private void appendStamp(final long time) {
+        final long s = time >= 0 ? time / 1000 : (time - 999) / 1000;
+        if (s != second) {
+            second = s;
+            calendar.setTimeInMillis(time);
+            put(1,  4, calendar.get(Calendar.YEAR));
+            put(6,  2, calendar.get(Calendar.MONTH) + 1);
+            put(9,  2, calendar.get(Calendar.DAY_OF_MONTH));
+            put(12, 2, calendar.get(Calendar.HOUR_OF_DAY));
+            put(15, 2, calendar.get(Calendar.MINUTE));
+            put(18, 2, calendar.get(Calendar.SECOND));
+        }
+        sb.append(stamp);
+    }
+
+    private void put(final int offset, final int digits, int value) {
+        for (int i = offset + digits - 1; i >= offset; i--) {
+            stamp[i] = (char) ('0' + value % 10);
+            value /= 10;
+        }
+    }
+
+    /**
+     * Appends the message and replaces every line break (\r\n, \r or \n) by
+     * an indented new line. Trailing line breaks are dropped.
+     */
+    private void appendLines(final CharSequence message) {
+        int end = message.length();
+        for (char ch; end > 0 && ((ch = message.charAt(end - 1)) == '\n' || ch == '\r'); end--) {}
+        int start = 0;
+        for (int i = 0; i < end; i++) {
+            final char ch = message.charAt(i);
+            if (ch == '\r' || ch == '\n') {
+                sb.append(message, start, i);
+                sb.append(NEW_LINE);
+                if (ch == '\r' && i + 1 < end && message.charAt(i + 1) == '\n') {
+                    i++;
+                }
+                start = i + 1;
+            }
+        }
+        sb.append(message, start, end);
+    }
+
+ /* ---------------------------- Trace Writer ------------------------------ */
+
+    private class TraceWriter extends Writer {
+
+        @Override
+        public void write(char[] cbuf, int off, int len) {
+            sb.append(cbuf, off, len);
+        }
+
+        @Override
+        public void write(String str, int off, int len) {
+            sb.append(str, off, off + len);
+        }
+
+        @Override
+        public void flush() {
+        }
+
+        @Override
+        public void close() {
+        }
+
+    }
+
+}
@@ -0,0 +1,280 @@
+/*
+ * Copyright (c) 2011, Stefan Neubert <akjiaer@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package ca.akjiaer.dval.mod;
+
+import ca.akjiaer.dval.Log;
+import ca.akjiaer.dval.util.Config;
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Order in which the module classes are defined during a run. With the
+ * preload mode ({@link Config#MODE_PRELOAD}) enabled, the profile of the
+ * last run is read at startup and its classes are defined by a background
+ * pool while the modules are opened; the profile of the current run is
+ * written on exit, see {@link #write()}.
+ * <p>
+ * In training mode ({@link Config#MODE_TRAINING}) the same record is
+ * written to a class list, see {@link #setClassList(File)}. Later runs
+ * preload the classes of the class list, if it exists, instead of the
+ * profile of the last run, whether the preload mode is enabled or not.
+ * <p>
+ * The profile has one <code>module class</code> per line, the module given
+ * as <code>name@version</code>. Classes are defined without
+ * being initialized. Classes which cannot be loaded, or belong to a module
+ * which is not loaded or not activated yet, are skipped. On a single
+ * processor nothing is preloaded, as it would only compete with opening.
+ *
+ * @author Stefan Neubert
+ * @version 1.1 2011-05-15
+ * @since 0.11.0
+ */
+public class ClassProfile {
+
+    /** Classes per preloading task */
+    private final static int CHUNK = 64;
+    /** Failing classes which are logged per preload */
+    private final static int LOG_FAILED = 10;
+
+    private static volatile File file;
+    private static volatile File list;
+    private static volatile boolean training;
+    /** Defined classes in order, guarded by itself */
+    private final static Set<String> recorded = new LinkedHashSet();
+
+    /**
+     * Records the classes defined from now on, if preloading is enabled.
+     *
+     * @param f profile of the last and the current run
+     */
+    public static void setFile(final File f) {
+        file = Config.sys.is(Config.MODE_PRELOAD) ? f : null;
+    }
+
+    /**
+     * In training mode records the classes defined from now on, to be
+     * written to the class list by {@link #write()}; otherwise the classes
+     * of the class list are preloaded, if it exists.
+     *
+     * @param f class list of a training run
+     */
+    public static void setClassList(final File f) {
+        list = f;
+        training = Config.sys.is(Config.MODE_TRAINING);
+        if (training) {
+            Log.info(ClassProfile.class, "Training mode: recording defined module classes.");
+        }
+    }
+
+    /**
+     * @return true, if the defined classes are recorded
+     */
+    public static boolean isEnabled() {
+        return file != null || training;
+    }
+
+    /**
+     * Records the definition of a class.
+     */
+    protected static void record(final Module m, final String name) {
+        if (file != null || training) {
+            synchronized (recorded) {
+                recorded.add(m.key + ' ' + name);
+            }
+        }
+    }
+
+    /**
+     * Writes the classes defined during this run in order to the profile
+     * and the class list.
+     */
+    public static void write() {
+        final String[] lines;
+        synchronized (recorded) {
+            lines = recorded.toArray(new String[recorded.size()]);
+        }
+        if (file != null) {
+            write(file, lines);
+        }
+        if (training && list != null) {
+            write(list, lines);
+        }
+    }
+
+    private static void write(final File f, final String[] lines) {
+        final File tmp = new File(f.getPath() + ".tmp");
+        Writer out = null;
+        try {
+            out = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(tmp), "UTF-8"));
+            for (String line : lines) {
+                out.write(line);
+                out.write('\n');
+            }
+            out.close();
+            out = null;
+            Files.move(tmp.toPath(), f.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                       StandardCopyOption.ATOMIC_MOVE);
+            Log.debug(ClassProfile.class, "Class list '{}' with {} classes written.",
+                      f.getName(), lines.length);
+        } catch (IOException ex) {
+            Log.warn(ClassProfile.class, "Cannot write class list '{}'!",
+                     f.getAbsolutePath(), ex);
+            tmp.delete();
+        } finally { if (out != null) try {out.close();} catch (IOException ex) {}}
+    }
+
+    /**
+     * Starts defining the classes of the class list or the last profile in
+     * the background. The registered modules are used, so they must be
+     * linked before.
+     */
+    protected static void preload() {
+        final File l = list;
+        final File f = !training && l != null && l.isFile() ? l : file;
+        if (f == null) {
+            return;
+        }
+        final int cpus = Runtime.getRuntime().availableProcessors();
+        if (cpus < 2) {
+            Log.debug(ClassProfile.class, "Single processor, classes are not preloaded.");
+            return;
+        }
+        final List<String[]> classes = read(f);
+        if (classes.isEmpty()) {
+            return;
+        }
+        final Map<String, Module> modules = new HashMap();
+        synchronized (Module.modules) {
+            modules.putAll(Module.modules);
+        }
+        final int threads = Math.max(1, cpus / 2);
+        final ExecutorService pool = Executors.newFixedThreadPool(threads, new Factory());
+        final AtomicInteger done = new AtomicInteger();
+        final AtomicInteger failed = new AtomicInteger();
+        final AtomicInteger pending = new AtomicInteger();
+        final long start = System.currentTimeMillis();
+        for (int i = 0; i < classes.size(); i += CHUNK) {
+            final List<String[]> chunk = classes.subList(i, Math.min(i + CHUNK, classes.size()));
+            pending.incrementAndGet();
+            pool.execute(new Runnable() {
+                @Override
+                public void run() {
+                    for (String[] c : chunk) {
+                        final Module m = modules.get(c[0]);
+                        if (m == null || !m.loaded) {
+                            continue;
+                        }
+                        try {
+                            Class.forName(c[1], false, m.loader);
+                            done.incrementAndGet();
+                        } catch (ClassNotFoundException ex) {
+                            failed(failed, c, ex);
+                        } catch (LinkageError ex) {
+                            failed(failed, c, ex);
+                        } catch (RuntimeException ex) {
+                            failed(failed, c, ex);
+                        }
+                    }
+                    if (pending.decrementAndGet() == 0) {
+                        Log.debug(ClassProfile.class, "{} classes of '{}' preloaded in {} ms, " +
+                                  "{} failed.", done, f.getName(),
+                                  System.currentTimeMillis() - start, failed);
+                    }
+                }
+            });
+        }
+        pool.shutdown();
+    }
+
+    /**
+     * Counts a class which cannot be preloaded, the first ones are logged.
+     */
+    private static void failed(final AtomicInteger failed, final String[] c,
+                               final Throwable ex) {
+        final int n = failed.incrementAndGet();
+        if (n <= LOG_FAILED) {
+            Log.debug(ClassProfile.class, "Cannot preload class '{}' of module '{}': {}",
+                      c[1], c[0], ex.toString());
+        }
+        if (n == LOG_FAILED) {
+            Log.debug(ClassProfile.class, "Further failing classes are not logged.");
+        }
+    }
+
+    /**
+     * @return module and class name of every line; empty if the profile is
+     *         missing or unreadable
+     */
+    private static List<String[]> read(final File f) {
+        final List<String[]> list = new ArrayList();
+        BufferedReader in = null;
+        try {
+            in = new BufferedReader(new InputStreamReader(new FileInputStream(f), "UTF-8"));
+            String line;
+            while ((line = in.readLine()) != null) {
+                final int i = line.lastIndexOf(' ');
+                if (i > 0 && i < line.length() - 1) {
+                    list.add(new String[] {line.substring(0, i), line.substring(i + 1)});
+                }
+            }
+        } catch (FileNotFoundException ex) {
+            // first run
+        } catch (IOException ex) {
+            Log.warn(ClassProfile.class, "Cannot read class profile '{}'!",
+                     f.getAbsolutePath(), ex);
+            list.clear();
+        } finally { if (in != null) try {in.close();} catch (IOException ex) {}}
+        return list;
+    }
+
+ /* ------------------------------- Factory -------------------------------- */
+
+    private static class Factory implements ThreadFactory {
+
+        private final AtomicInteger count = new AtomicInteger();
+
+        @Override
+        public Thread newThread(Runnable r) {
+            final Thread t = new Thread(r, "Class Preloader-" + count.incrementAndGet());
+            t.setDaemon(true);
+            t.setPriority(Thread.NORM_PRIORITY - 1);
+            return t;
+        }
+
+    }
+
+}
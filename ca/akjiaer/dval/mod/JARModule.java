@@ -17,40 +17,55 @@
 package ca.akjiaer.dval.mod;
 
 import ca.akjiaer.dval.Log;
+import java.io.ByteArrayInputStream;
 import java.io.File;
 import java.io.IOException;
-import java.util.Enumeration;
-import java.util.zip.ZipEntry;
-import java.util.zip.ZipException;
-import java.util.zip.ZipFile;
-import ca.akjiaer.dval.util.Version;
-import java.io.ByteArrayOutputStream;
 import java.io.InputStream;
+import ca.akjiaer.dval.util.Version;
+import java.nio.ByteBuffer;
+import java.util.List;
 
 /**
  * @author Stefan Neubert
- * @version 1.0.2 2011-04-14
+ * @version 1.3 2011-05-14
  * @since 0.10.0
  */
 public class JARModule extends Module {
 
+    /** Archive of the source file, read by all entries */
+    private volatile JarArchive archive;
+
     protected JARModule(String name, Version version, String author,
                         String mainclass, File source) {
         super(name, version, author, mainclass, source);
     }
 
+    protected JARModule(String name, Version version, String author,
+                        String mainclass, File source, List<ModuleRequirement> requires) {
+        super(name, version, author, mainclass, source, requires);
+    }
+
+    /**
+     * @param archive opened archive of the source file
+     */
+    protected JARModule(String name, Version version, String author, String mainclass,
+                        File source, List<ModuleRequirement> requires, JarArchive archive) {
+        super(name, version, author, mainclass, source, requires);
+        this.archive = archive;
+    }
+
     @Override
     protected boolean load() {
+        final long start = System.nanoTime();
         try {
-            final ZipFile zfile = new ZipFile(source, ZipFile.OPEN_READ);
-            final Enumeration<ZipEntry> eze = (Enumeration<ZipEntry>) zfile.entries();
-            String s = null;
-            ZipEntry ze = null;
-            JARModuleEntry je = null;
-            while (eze.hasMoreElements()) {
-                ze = eze.nextElement();
-                if (!(s = ze.getName()).endsWith("/") && !s.startsWith("META-INF")) {
-                    je = new JARModuleEntry(zfile, ze);
+            if (archive == null) {
+                archive = new JarArchive(source);
+            }
+            String s;
+            for (JarArchive.Entry e : archive.getEntries()) {
+                if (!(s = e.getName()).endsWith("/") && (!s.startsWith("META-INF")
+                        || s.startsWith("META-INF/services/"))) {
+                    final JARModuleEntry je = new JARModuleEntry(archive, e);
                     if (s.endsWith(".class")) {
                         classes.put(s.replace('/', '.').substring(0, s.lastIndexOf(".")), je);
                     } else {
@@ -58,42 +73,70 @@ public class JARModule extends Module {
                     }
                 }
             }
+            metrics.loaded(System.nanoTime() - start, classes.size() + resources.size());
             return (loaded = true);
-        } catch (ZipException ex) {
-            Log.error(JARModule.class, "Cannot load Module!", ex);
         } catch (IOException ex) {
             Log.error(JARModule.class, "Cannot load Module!", ex);
         }
         return (loaded = false);
     }
 
+    @Override
+    protected void release() {
+        final JarArchive a = archive;
+        if (a != null) {
+            a.close();
+        }
+    }
+
  /* ------------------------- JAR Module Entry ------------------------------*/
 
     private class JARModuleEntry extends Module.Entry {
 
-        private final ZipFile source;
-        private final ZipEntry entry;
+        private final JarArchive source;
+        private final JarArchive.Entry entry;
 
-        public JARModuleEntry(ZipFile source, ZipEntry entry) {
+        public JARModuleEntry(JarArchive source, JarArchive.Entry entry) {
+            super(JARModule.this);
             this.source = source;
             this.entry  = entry;
         }
 
         @Override
         protected byte[] read() {
-            InputStream in = null;
             try {
-                final ByteArrayOutputStream bos = new ByteArrayOutputStream();
-                in = source.getInputStream(entry);
-                for (int next; (next = in.read()) > -1; bos.write(next)) {}
-                bos.flush();
-                return bos.toByteArray();
+                return source.read(entry);
             } catch (IOException ex) {
-                Log.error(JARModuleEntry.class, "Cannot read entry!", ex);
-            } finally { if (in != null) try { in.close(); } catch (IOException ex) {}}
+                Log.error(JARModuleEntry.class, "Cannot read entry '{}'!", entry.getName(), ex);
+            }
             return new byte[0];
         }
 
+        @Override
+        protected ByteBuffer buffer() {
+            try {
+                return source.getBuffer(entry);
+            } catch (IOException ex) {
+                Log.error(JARModuleEntry.class, "Cannot read entry '{}'!", entry.getName(), ex);
+            }
+            return ByteBuffer.allocate(0);
+        }
+
+        @Override
+        protected int size() {
+            return entry.getSize();
+        }
+
+        @Override
+        protected InputStream open() {
+            try {
+                return source.getInputStream(entry);
+            } catch (IOException ex) {
+                Log.error(JARModuleEntry.class, "Cannot read entry '{}'!", entry.getName(), ex);
+            }
+            return new ByteArrayInputStream(new byte[0]);
+        }
+
     }
 
 }
@@ -0,0 +1,537 @@
+/*
+ * Copyright (c) 2011, Stefan Neubert <akjiaer@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package ca.akjiaer.dval.mod;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+import java.util.zip.ZipException;
+
+/**
+ * Read-only access to a jar (zip) file, which is mapped into memory. The
+ * central directory is parsed directly; stored entries are served as
+ * slices of the mapping without copying, deflated entries are inflated
+ * into a buffer of exactly their size.
+ * <p>
+ * Zip64 and encrypted entries are not supported. After {@link #close()}
+ * no entry can be read anymore; the mapping itself is released by the
+ * garbage collector once no buffer or stream of an entry is left, as
+ * unmapping it while such a view is in use would crash the VM.
+ * <p>
+ * The entries can be stored and passed to a later instance, see
+ * {@link ModuleCache}, which then skips the central directory.
+ *
+ * @author Stefan Neubert
+ * @version 1.3 2011-05-16
+ * @since 0.11.0
+ */
+public class JarArchive {
+
+    public final static int STORED = 0;
+    public final static int DEFLATED = 8;
+
+    private final static int SIG_END = 0x06054B50;
+    private final static int SIG_CENTRAL = 0x02014B50;
+    private final static int SIG_LOCAL = 0x04034B50;
+    private final static int END_SIZE = 22;
+    private final static int CENTRAL_SIZE = 46;
+    private final static int LOCAL_SIZE = 30;
+    private final static int MAX_COMMENT = 0xFFFF;
+
+    private final static Charset UTF_8 = Charset.forName("UTF-8");
+
+    /** Inflater and input buffer per thread, reused for every entry */
+    private final static ThreadLocal<Inflating> inflating = new ThreadLocal<Inflating>() {
+        @Override
+        protected Inflating initialValue() {
+            return new Inflating();
+        }
+    };
+
+ /* ------------------------------ JarArchive ------------------------------ */
+
+    private final File file;
+    /** Mapping of the file, null once closed */
+    private volatile MappedByteBuffer map;
+    private final List<Entry> entries;
+
+    public JarArchive(final File file) throws IOException {
+        final FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+        try {
+            this.file = file;
+            map = map(file, channel);
+            entries = Collections.unmodifiableList(readCentral());
+        } finally {
+            channel.close();
+        }
+    }
+
+    /**
+     * Maps the archive from a channel of the file, which is left open for
+     * the caller to close.
+     */
+    protected JarArchive(final File file, final FileChannel channel) throws IOException {
+        this.file = file;
+        map = map(file, channel);
+        entries = Collections.unmodifiableList(readCentral());
+    }
+
+    /**
+     * Maps the archive with entries known from an earlier scan instead of
+     * reading its central directory.
+     *
+     * @throws ZipException if an entry does not fit into the archive
+     */
+    protected JarArchive(final File file, final FileChannel channel, final List<Entry> entries)
+            throws IOException {
+        this.file = file;
+        map = map(file, channel);
+        for (Entry e : entries) {
+            if (e.local < 0 || e.csize < 0 || e.size < 0
+                    || (long) e.local + LOCAL_SIZE + e.csize > map.limit()) {
+                throw new ZipException("Entry exceeds archive: " + e.name);
+            }
+        }
+        this.entries = Collections.unmodifiableList(entries);
+    }
+
+    private static MappedByteBuffer map(final File file, final FileChannel channel)
+            throws IOException {
+        final long size = channel.size();
+        if (size > Integer.MAX_VALUE) {
+            throw new ZipException("Archive too large: " + file.getName());
+        }
+        final MappedByteBuffer map = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+        map.order(ByteOrder.LITTLE_ENDIAN);
+        return map;
+    }
+
+    /**
+     * @return mapping of the file
+     * @throws IOException if the archive is closed
+     */
+    private MappedByteBuffer map() throws IOException {
+        final MappedByteBuffer m = map;
+        if (m == null) {
+            throw new IOException("Archive closed: " + file.getName());
+        }
+        return m;
+    }
+
+    /**
+     * Closes the archive, so that its entries cannot be read anymore.
+     * Buffers and streams of entries obtained before remain valid.
+     */
+    public void close() {
+        map = null;
+    }
+
+    public boolean isClosed() {
+        return map == null;
+    }
+
+    public File getFile() {
+        return file;
+    }
+
+    /**
+     * @return all entries in order of the central directory
+     */
+    public List<Entry> getEntries() {
+        return entries;
+    }
+
+    /**
+     * @return first entry of the name, ignoring case, null if there is none
+     */
+    public Entry getEntry(final String name) {
+        for (Entry e : entries) {
+            if (e.name.equalsIgnoreCase(name)) {
+                return e;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @return CRC-32 of the whole archive file
+     */
+    public long checksum() {
+        final MappedByteBuffer m = map;
+        if (m == null) {
+            throw new IllegalStateException("Archive closed: " + file.getName());
+        }
+        final CRC32 crc = new CRC32();
+        final ByteBuffer d = m.duplicate();
+        final byte[] b = new byte[Math.min(d.remaining(), 65536)];
+        while (d.hasRemaining()) {
+            final int n = Math.min(d.remaining(), b.length);
+            d.get(b, 0, n);
+            crc.update(b, 0, n);
+        }
+        return crc.getValue();
+    }
+
+    /**
+     * Writes the entries in the format of {@link #readEntries(DataInput)}.
+     */
+    protected static void writeEntries(final List<Entry> list, final DataOutput out)
+            throws IOException {
+        out.writeInt(list.size());
+        for (Entry e : list) {
+            out.writeUTF(e.name);
+            out.writeShort(e.flags);
+            out.writeShort(e.method);
+            out.writeInt(e.csize);
+            out.writeInt(e.size);
+            out.writeInt(e.local);
+        }
+    }
+
+    /**
+     * @throws IOException if the data is corrupt
+     */
+    protected static List<Entry> readEntries(final DataInput in) throws IOException {
+        final int count = in.readInt();
+        if (count < 0 || count > 0xFFFF) {
+            throw new IOException("Invalid entry count: " + count);
+        }
+        final List<Entry> list = new ArrayList(count);
+        for (int i = 0; i < count; i++) {
+            list.add(new Entry(in.readUTF(), in.readUnsignedShort(), in.readUnsignedShort(),
+                               in.readInt(), in.readInt(), in.readInt()));
+        }
+        return list;
+    }
+
+    private int findEnd() throws ZipException {
+        final int last = map.limit() - END_SIZE;
+        final int first = Math.max(0, last - MAX_COMMENT);
+        for (int i = last; i >= first; i--) {
+            if (map.getInt(i) == SIG_END && i + END_SIZE + u16(i + 20) == map.limit()) {
+                return i;
+            }
+        }
+        throw new ZipException("End of central directory not found: " + file.getName());
+    }
+
+    private List<Entry> readCentral() throws ZipException {
+        final int end = findEnd();
+        final int count = u16(end + 10);
+        final long offset = u32(end + 16);
+        if (count == 0xFFFF || offset == 0xFFFFFFFFL) {
+            throw new ZipException("Zip64 archives are not supported: " + file.getName());
+        }
+        if (offset > end) {
+            throw new ZipException("Corrupt central directory: " + file.getName());
+        }
+        final List<Entry> list = new ArrayList(count);
+        int pos = (int) offset;
+        final byte[] name = new byte[256];
+        for (int i = 0; i < count; i++) {
+            if (pos + CENTRAL_SIZE > end || map.getInt(pos) != SIG_CENTRAL) {
+                throw new ZipException("Corrupt central directory: " + file.getName());
+            }
+            final int flags = u16(pos + 8);
+            final int method = u16(pos + 10);
+            final long csize = u32(pos + 20);
+            final long size = u32(pos + 24);
+            final int nameLength = u16(pos + 28);
+            final int extraLength = u16(pos + 30);
+            final int commentLength = u16(pos + 32);
+            final long local = u32(pos + 42);
+            if (csize == 0xFFFFFFFFL || size == 0xFFFFFFFFL || local == 0xFFFFFFFFL) {
+                throw new ZipException("Zip64 entries are not supported: " + file.getName());
+            }
+            // every length is checked, so that a corrupt archive is rejected
+            // instead of failing with an unchecked exception
+            final int next = pos + CENTRAL_SIZE + nameLength + extraLength + commentLength;
+            if (next > end) {
+                throw new ZipException("Corrupt central directory: " + file.getName());
+            }
+            final byte[] b = nameLength <= name.length ? name : new byte[nameLength];
+            final ByteBuffer d = map.duplicate();
+            d.position(pos + CENTRAL_SIZE);
+            d.get(b, 0, nameLength);
+            final String n = new String(b, 0, nameLength, UTF_8);
+            if (size > Integer.MAX_VALUE || local + LOCAL_SIZE + csize > map.limit()) {
+                throw new ZipException("Entry exceeds archive: " + n);
+            }
+            list.add(new Entry(n, flags, method, (int) csize, (int) size, (int) local));
+            pos = next;
+        }
+        return list;
+    }
+
+    private int u16(final int pos) {
+        return map.getShort(pos) & 0xFFFF;
+    }
+
+    private long u32(final int pos) {
+        return map.getInt(pos) & 0xFFFFFFFFL;
+    }
+
+    /**
+     * @return position of the entry data in the mapping
+     */
+    private static int dataOffset(final ByteBuffer m, final Entry e) throws ZipException {
+        int offset = e.data;
+        if (offset < 0) {
+            final int local = e.local;
+            if (local + LOCAL_SIZE > m.limit() || m.getInt(local) != SIG_LOCAL) {
+                throw new ZipException("Corrupt local header: " + e.name);
+            }
+            offset = local + LOCAL_SIZE + (m.getShort(local + 26) & 0xFFFF)
+                     + (m.getShort(local + 28) & 0xFFFF);
+            if (offset + e.csize > m.limit()) {
+                throw new ZipException("Entry exceeds archive: " + e.name);
+            }
+            e.data = offset;
+        }
+        return offset;
+    }
+
+    /**
+     * @return content of the entry; a read-only slice of the mapping for
+     *         stored entries, an exactly sized heap buffer otherwise
+     */
+    public ByteBuffer getBuffer(final Entry e) throws IOException {
+        if (e.method == STORED && (e.flags & 1) == 0) {
+            final MappedByteBuffer m = map();
+            final ByteBuffer d = m.duplicate();
+            final int offset = dataOffset(m, e);
+            d.position(offset);
+            d.limit(offset + e.size);
+            return d.slice().asReadOnlyBuffer();
+        }
+        return ByteBuffer.wrap(read(e));
+    }
+
+    /**
+     * @return stream of the content of the entry, which is inflated while
+     *         reading
+     */
+    public InputStream getInputStream(final Entry e) throws IOException {
+        if ((e.flags & 1) != 0) {
+            throw new ZipException("Encrypted entries are not supported: " + e.name);
+        }
+        final MappedByteBuffer m = map();
+        final ByteBuffer d = m.duplicate();
+        final int offset = dataOffset(m, e);
+        d.position(offset);
+        d.limit(offset + e.csize);
+        if (e.method == STORED) {
+            return new BufferInputStream(d.slice(), false);
+        }
+        if (e.method != DEFLATED) {
+            throw new ZipException("Unsupported compression method " + e.method + ": "
+                                   + e.name);
+        }
+        final Inflater inflater = new Inflater(true);
+        return new InflaterInputStream(new BufferInputStream(d.slice(), true), inflater,
+                                       Math.max(512, Math.min(e.csize, 8192))) {
+            private boolean closed;
+
+            @Override
+            public int available() {
+                return closed || inflater.finished() ? 0 : 1;
+            }
+
+            @Override
+            public void close() throws IOException {
+                if (!closed) {
+                    closed = true;
+                    inflater.end();
+                    super.close();
+                }
+            }
+        };
+    }
+
+    /**
+     * @return content of the entry in an array of exactly its size
+     */
+    public byte[] read(final Entry e) throws IOException {
+        if ((e.flags & 1) != 0) {
+            throw new ZipException("Encrypted entries are not supported: " + e.name);
+        }
+        final MappedByteBuffer m = map();
+        final int offset = dataOffset(m, e);
+        final byte[] b = new byte[e.size];
+        final ByteBuffer d = m.duplicate();
+        d.position(offset);
+        if (e.method == STORED) {
+            d.get(b);
+            return b;
+        }
+        if (e.method != DEFLATED) {
+            throw new ZipException("Unsupported compression method " + e.method + ": "
+                                   + e.name);
+        }
+        final Inflating in = inflating.get();
+        // raw inflating needs an extra dummy byte, see Inflater(boolean)
+        final byte[] input = in.input(e.csize + 1);
+        d.get(input, 0, e.csize);
+        input[e.csize] = 0;
+        in.inflater.reset();
+        in.inflater.setInput(input, 0, e.csize + 1);
+        try {
+            int n = 0;
+            while (n < b.length) {
+                final int r = in.inflater.inflate(b, n, b.length - n);
+                if (r == 0 && (in.inflater.finished() || in.inflater.needsInput()
+                        || in.inflater.needsDictionary())) {
+                    break;
+                }
+                n += r;
+            }
+            if (n != b.length) {
+                throw new ZipException("Invalid entry size: " + e.name);
+            }
+        } catch (DataFormatException ex) {
+            throw new ZipException("Invalid deflated data: " + e.name);
+        }
+        return b;
+    }
+
+ /* -------------------------------- Entry --------------------------------- */
+
+    public static class Entry {
+
+        private final String name;
+        private final int flags;
+        private final int method;
+        private final int csize;
+        private final int size;
+        private final int local;
+        /** Position of the data, resolved on first access */
+        private volatile int data = -1;
+
+        private Entry(final String name, final int flags, final int method,
+                      final int csize, final int size, final int local) {
+            this.name = name;
+            this.flags = flags;
+            this.method = method;
+            this.csize = csize;
+            this.size = size;
+            this.local = local;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public boolean isDirectory() {
+            return name.endsWith("/");
+        }
+
+        public int getMethod() {
+            return method;
+        }
+
+        public int getSize() {
+            return size;
+        }
+
+        public int getCompressedSize() {
+            return csize;
+        }
+
+    }
+
+ /* --------------------------- BufferInputStream --------------------------- */
+
+    private static class BufferInputStream extends InputStream {
+
+        private final ByteBuffer buffer;
+        /** Raw inflating needs an extra dummy byte, see Inflater(boolean) */
+        private boolean dummy;
+
+        private BufferInputStream(final ByteBuffer buffer, final boolean dummy) {
+            this.buffer = buffer;
+            this.dummy = dummy;
+        }
+
+        @Override
+        public int read() {
+            if (buffer.hasRemaining()) {
+                return buffer.get() & 0xFF;
+            }
+            if (dummy) {
+                dummy = false;
+                return 0;
+            }
+            return -1;
+        }
+
+        @Override
+        public int read(final byte[] b, final int off, final int len) {
+            if (len == 0) {
+                return 0;
+            }
+            if (!buffer.hasRemaining()) {
+                final int c = read();
+                if (c < 0) {
+                    return -1;
+                }
+                b[off] = (byte) c;
+                return 1;
+            }
+            final int n = Math.min(len, buffer.remaining());
+            buffer.get(b, off, n);
+            return n;
+        }
+
+        @Override
+        public int available() {
+            return buffer.remaining() + (dummy ? 1 : 0);
+        }
+
+    }
+
+ /* ------------------------------ Inflating ------------------------------- */
+
+    private static class Inflating {
+
+        private final Inflater inflater = new Inflater(true);
+        private byte[] input = new byte[8192];
+
+        private byte[] input(final int length) {
+            if (input.length < length) {
+                input = new byte[Math.max(length, input.length * 2)];
+            }
+            return input;
+        }
+
+    }
+
+}
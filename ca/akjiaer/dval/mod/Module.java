@@ -17,93 +17,375 @@
 package ca.akjiaer.dval.mod;
 
 import ca.akjiaer.dval.Log;
+import java.io.ByteArrayInputStream;
 import java.io.File;
-import java.util.HashMap;
+import java.io.InputStream;
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 import ca.akjiaer.dval.util.Version;
 
 /**
  * @author Stefan Neubert
- * @version 1.2.2 2011-04-07
+ * @version 1.5 2011-05-15
  * @since 0.10.0
  */
 public abstract class Module {
 
-    protected final static ModuleClassLoader classloader = new ModuleClassLoader();
-    protected final static Map<String,Module> modules = new HashMap(5);
+    /** Shared loader, replaced when a module is unloaded */
+    protected static volatile ModuleClassLoader classloader = new ModuleClassLoader();
+    /**
+     * Modules by name and version (<code>name@version</code>) in order of
+     * registration, changed only while holding its lock
+     */
+    protected final static Map<String,Module> modules = new LinkedHashMap(5);
+    /** Class and resource names of all registered modules */
+    protected final static ModuleIndex index = new ModuleIndex();
+
+    /** Content of frequently read resources */
+    protected static volatile ResourceCache resourceCache =
+            new ResourceCache(8L << 20, 256 << 10);
+    /** True, if a lazy module may not be activated yet */
+    private static volatile boolean pending;
 
     public static ClassLoader getClassLoader() {
         return classloader;
     }
 
+    /**
+     * Replaces the cache of module resources.
+     *
+     * @param budget maximum number of cached bytes, 0 disables caching
+     * @param threshold maximum size of a cached resource in bytes
+     */
+    public static void setResourceCache(final long budget, final int threshold) {
+        resourceCache = new ResourceCache(budget, threshold);
+    }
+
+    public static ResourceCache getResourceCache() {
+        return resourceCache;
+    }
+
+    /**
+     * Loads the lazy modules visible to the module, which are not loaded
+     * yet, and adds them to the index.
+     *
+     * @param m module, which misses a class or resource; null for all
+     * @return true, if a module has been loaded
+     */
+    protected static boolean activate(final Module m) {
+        if (!pending) {
+            return false;
+        }
+        final List<Module> list = new ArrayList();
+        synchronized (modules) {
+            boolean left = false;
+            for (Module o : modules.values()) {
+                if (o.lazy && !o.activated) {
+                    left = true;
+                    final List<Module> graph = m == null ? null : m.graph;
+                    if (graph == null || graph.contains(o)) {
+                        list.add(o);
+                    }
+                }
+            }
+            pending = left;
+        }
+        boolean found = false;
+        for (Module o : list) {
+            found |= o.activate();
+        }
+        return found;
+    }
+
+    /**
+     * Looks a module up by name and version or, for legacy callers, by
+     * name only; then the highest registered version is taken.
+     *
+     * @param key <code>name@version</code> or name
+     * @return registered module, null if there is none
+     */
+    protected static Module get(final String key) {
+        synchronized (modules) {
+            Module m = modules.get(key);
+            if (m == null) {
+                for (Module o : modules.values()) {
+                    if (o.name.equals(key) && (m == null || isNewer(o, m))) {
+                        m = o;
+                    }
+                }
+            }
+            return m;
+        }
+    }
+
+    /**
+     * @return true, if a has a higher version than b
+     */
+    private static boolean isNewer(final Module a, final Module b) {
+        return a.version != null && (b.version == null || a.version.isNewerAs(b.version));
+    }
+
+    /**
+     * Closes all modules. Their sources are released after every entry
+     * point is closed, as closing may still load classes of other modules.
+     */
     public static void closeAll() {
-        for (Module m : modules.values()) {
-            m.close();
+        synchronized (modules) {
+            for (Module m : modules.values()) {
+                m.stop();
+            }
+            for (Module m : modules.values()) {
+                m.release();
+            }
         }
     }
 
  /* ------------------------------ Module ---------------------------------- */
 
-    protected final Map<String, Entry> classes = new HashMap();
-    protected final Map<String, Entry> resources = new HashMap();
-    protected final Map<String, Class> cache = new HashMap();
+    protected final Map<String, Entry> classes = new ConcurrentHashMap();
+    protected final Map<String, Entry> resources = new ConcurrentHashMap();
+    protected final Map<String, Class> cache = new ConcurrentHashMap();
     
     protected final String name;
+    /** Name and version, the key of the registered modules */
+    protected final String key;
     protected final String author;
     protected final String mainclass;
     protected final Version version;
     protected final File source;
+    /** Declared dependencies, null if the module declares none */
+    protected final List<ModuleRequirement> requires;
+    protected final ModuleClassLoader loader;
+    protected final ModuleMetrics metrics = new ModuleMetrics(this);
+    /** Required modules, transitively in breadth-first order */
+    protected volatile List<Module> graph;
     private ModuleEntryPoint entrypoint;
 
-    protected boolean loaded = false;
+    /** Cleared on unload before the cached resources are dropped */
+    protected volatile boolean loaded = false;
+    /** Loaded and opened on first use (<code>Lazy-Open</code>) */
+    protected boolean lazy = false;
+    private volatile boolean activated = false;
+    private volatile boolean opened = false;
 
     protected Module(String name, Version version, String author,
                      String mainclass, File source) {
+        this(name, version, author, mainclass, source, null);
+    }
+
+    protected Module(String name, Version version, String author,
+                     String mainclass, File source, List<ModuleRequirement> requires) {
         this.name = name;
+        this.key = version == null ? name : name + '@' + version;
         this.author = author;
         this.version = version;
         this.mainclass = mainclass;
         this.source = source;
+        this.requires = requires;
+        this.loader = new ModuleClassLoader(this);
     }
 
     protected abstract boolean load();
 
+    /**
+     * Resolves the required modules among the registered ones; of several
+     * registered versions the highest accepted one is taken. A module
+     * without declared dependencies sees all modules.
+     *
+     * @return false, if a required module is missing or has a wrong version,
+     *         or if the module requires itself, directly or transitively
+     */
+    protected boolean link() {
+        if (requires == null) {
+            graph = null;
+            return true;
+        }
+        final List<Module> list = new ArrayList();
+        final Deque<Module> queue = new ArrayDeque();
+        if (!resolve(this, list, queue)) {
+            return false;
+        }
+        while (!queue.isEmpty()) {
+            final Module m = queue.poll();
+            if (m.requires != null && !resolve(m, list, queue)) {
+                return false;
+            }
+        }
+        graph = Collections.unmodifiableList(list);
+        return true;
+    }
+
+    private boolean resolve(final Module m, final List<Module> list,
+                            final Deque<Module> queue) {
+        for (ModuleRequirement r : m.requires) {
+            Module d = null;
+            final List<Version> found = new ArrayList();
+            for (Module o : modules.values()) {
+                if (o.name.equals(r.getName())) {
+                    found.add(o.version);
+                    if (r.accepts(o.version) && (d == null || isNewer(o, d))) {
+                        d = o;
+                    }
+                }
+            }
+            if (found.isEmpty()) {
+                Log.error(Module.class, "Module '{}' requires '{}', which is not loaded!",
+                          m.name, r);
+                return false;
+            }
+            if (d == null) {
+                Log.error(Module.class, "Module '{}' requires '{}', but version {} is loaded!",
+                          m.name, r, found.size() == 1 ? found.get(0) : found);
+                return false;
+            }
+            if (d == this) {
+                Log.error(Module.class, "Module '{}' requires itself through '{}'!",
+                          name, m.name);
+                return false;
+            }
+            if (!list.contains(d)) {
+                list.add(d);
+                queue.add(d);
+            }
+        }
+        return true;
+    }
+
     protected void open() {
         if (!isLibrary()) {
-            Log.debug(Module.class, "Open module '" + name + "' ...");
+            Log.debug(Module.class, "Open module '{}' ...", name);
             try {
-                Class c = Module.classloader.loadClass(mainclass);
+                Class c = loader.loadClass(mainclass);
                 boolean found = false;
                 for (Class cs : c.getInterfaces()) {
                     if (cs.getName().equals(ModuleEntryPoint.class.getName())) {
                         (entrypoint = (ModuleEntryPoint) c.newInstance()).open();
                         found = true;
+                        Log.debug(Module.class, "Module '{}' opened {} ms after start.", name,
+                                  System.currentTimeMillis() - ManagementFactory
+                                  .getRuntimeMXBean().getStartTime());
                     }
                 }
                 if (!found) {
-                    Log.error(Module.class, "Open \"" + name + "\" failed: " +
-                              "ModuleInterface not found! (" + mainclass + ")");
+                    Log.error(Module.class, "Open \"{}\" failed: " +
+                              "ModuleInterface not found! ({})", name, mainclass);
                 }
             } catch (InstantiationException ex) {
-                Log.error(Module.class, "Open \"" + name +
-                          "\" failed: Cannot instantiate Mainclass!", ex);
+                Log.error(Module.class, "Open \"{}\" failed: Cannot instantiate Mainclass!",
+                          name, ex);
             } catch (ClassNotFoundException ex) {
-                Log.error(Module.class, "Open \"" + name +
-                          "\" failed: Mainclass not found! (" +
-                          mainclass + ")");
+                Log.error(Module.class, "Open \"{}\" failed: Mainclass not found! ({})",
+                          name, mainclass);
             } catch (IllegalAccessException ex) {
-                Log.error(Module.class, "Open \"" + name +
-                          "\" failed: Cannot instantiate Mainclass!", ex);
+                Log.error(Module.class, "Open \"{}\" failed: Cannot instantiate Mainclass!",
+                          name, ex);
+            }
+        }
+    }
+
+    /**
+     * Marks a lazy module, which is registered but not loaded yet.
+     */
+    protected void defer() {
+        pending = true;
+    }
+
+    private synchronized boolean activate() {
+        if (activated) {
+            return true;
+        }
+        if (!load()) {
+            return false;
+        }
+        index.add(this);
+        activated = true;
+        Log.debug(Module.class, "Lazy module '{}' loaded.", name);
+        return true;
+    }
+
+    /**
+     * Opens a lazy module, when the first of its classes is defined. The
+     * caller holds class loading locks, so the module is opened by another
+     * thread, see {@link ModuleLoader#openLater(Module)}.
+     */
+    protected void touch() {
+        if (lazy && !opened) {
+            synchronized (this) {
+                if (opened) {
+                    return;
+                }
+                opened = true;
             }
+            ModuleLoader.openLater(this);
         }
     }
 
+    /**
+     * Closes the entry point and releases the source of the module, whose
+     * entries cannot be read afterwards.
+     */
     protected void close() {
-        if (entrypoint != null) {
-            entrypoint.close();
+        try {
+            stop();
+        } finally {
+            release();
+        }
+    }
+
+    /**
+     * Closes the entry point, the entries can still be read.
+     */
+    protected void stop() {
+        final ModuleEntryPoint e = entrypoint;
+        entrypoint = null;
+        if (e != null) {
+            e.close();
         }
     }
 
+    /**
+     * Releases the source of the entries, e.g. a file handle.
+     */
+    protected void release() {
+    }
+
+    /**
+     * Drops all references to the entries and classes of this module, so
+     * that its class loader can be collected once no instance of its
+     * classes is left. The module must be closed and removed from the
+     * index before.
+     */
+    protected void unload() {
+        cache.clear();
+        classes.clear();
+        resources.clear();
+        graph = null;
+        // a concurrent put either sees this, or is dropped by remove
+        loaded = false;
+        resourceCache.remove(this);
+        metrics.unregister();
+    }
+
+    /**
+     * @param path resource path, class files as <code>a/b/C.class</code>
+     * @return entry of the path, null if the module has none
+     */
+    protected Entry getEntry(final String path) {
+        final Entry e = resources.get(path);
+        if (e != null || !path.endsWith(".class")) {
+            return e;
+        }
+        return classes.get(path.substring(0, path.length() - 6).replace('/', '.'));
+    }
+
 /* -------------------------------- Flags ---------------------------------- */
 
     public boolean isLibrary() {
@@ -114,12 +396,59 @@ public abstract class Module {
         return loaded;
     }
 
+    public boolean isLazy() {
+        return lazy;
+    }
+
+    /**
+     * @return class loading metrics of this module
+     */
+    public ModuleMetrics getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * @return class loader of this module
+     */
+    public ClassLoader getLoader() {
+        return loader;
+    }
+
 /* --------------------------- Entry Interface ----------------------------- */
     
     protected static abstract class Entry {
 
+        /** Module which provides the entry */
+        protected final Module module;
+
+        protected Entry(final Module module) {
+            this.module = module;
+        }
+
         protected abstract byte[] read();
-        
+
+        /**
+         * @return content of the entry, without copying if possible
+         */
+        protected ByteBuffer buffer() {
+            return ByteBuffer.wrap(read());
+        }
+
+        /**
+         * @return uncompressed size in bytes, -1 if unknown
+         */
+        protected int size() {
+            return -1;
+        }
+
+        /**
+         * @return stream of the content, without reading it at once if
+         *         possible
+         */
+        protected InputStream open() {
+            return new ByteArrayInputStream(read());
+        }
+
     }
     
 }
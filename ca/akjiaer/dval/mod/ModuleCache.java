@@ -0,0 +1,230 @@
+/*
+ * Copyright (c) 2011, Stefan Neubert <akjiaer@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package ca.akjiaer.dval.mod;
+
+import ca.akjiaer.dval.Log;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.jar.Attributes;
+
+/**
+ * Startup cache of the module files. For every jar it keeps the main
+ * attributes of the manifest and the entries of the central directory, so
+ * that an unchanged jar is registered without reading either of them.
+ * <p>
+ * A jar is considered unchanged if its size and modification time match.
+ * With verifying enabled the CRC-32 of the whole file must match as well,
+ * which costs a full read but still saves the parsing. Stale records are
+ * replaced; a corrupt cache file is ignored and rewritten.
+ *
+ * @author Stefan Neubert
+ * @version 1.0 2011-05-08
+ * @since 0.11.0
+ */
+public class ModuleCache {
+
+    private final static int MAGIC = 0x44564D43; // DVMC
+    private final static int FORMAT = 1;
+
+    private final File file;
+    private final boolean verify;
+    /** Records read from the cache file */
+    private final Map<String, Record> records = new ConcurrentHashMap();
+    /** Records of the jars loaded since then, written by save() */
+    private final Map<String, Record> used = new ConcurrentHashMap();
+    private volatile boolean changed;
+
+    /**
+     * @param verify compare the checksum of the jars as well
+     */
+    public ModuleCache(final File file, final boolean verify) {
+        this.file = file;
+        this.verify = verify;
+        read();
+    }
+
+    public File getFile() {
+        return file;
+    }
+
+    public boolean isVerifying() {
+        return verify;
+    }
+
+    private void read() {
+        DataInputStream in = null;
+        try {
+            in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+            if (in.readInt() != MAGIC || in.readInt() != FORMAT) {
+                Log.debug(ModuleCache.class, "Module cache '{}' has an unknown format!",
+                          file.getName());
+                return;
+            }
+            final int count = in.readInt();
+            for (int i = 0; i < count; i++) {
+                final Record r = new Record(in.readUTF(), in.readLong(), in.readLong(),
+                                            in.readLong());
+                final int n = in.readInt();
+                for (int j = 0; j < n; j++) {
+                    r.attributes.putValue(in.readUTF(), in.readUTF());
+                }
+                r.entries = JarArchive.readEntries(in);
+                records.put(r.path, r);
+            }
+        } catch (FileNotFoundException ex) {
+            // first start
+        } catch (IOException ex) {
+            records.clear();
+            Log.debug(ModuleCache.class, "Module cache '{}' is corrupt! Ignored.",
+                      file.getName());
+        } catch (IllegalArgumentException ex) {
+            records.clear();
+            Log.debug(ModuleCache.class, "Module cache '{}' is corrupt! Ignored.",
+                      file.getName());
+        } finally { if (in != null) try {in.close();} catch (IOException ex) {}}
+    }
+
+    /**
+     * @return record of the jar, null if there is none or the jar has
+     *         changed since
+     */
+    public Record get(final File jar) {
+        final Record r = records.get(jar.getAbsolutePath());
+        if (r == null || r.size != jar.length() || r.modified != jar.lastModified()) {
+            return null;
+        }
+        used.put(r.path, r);
+        return r;
+    }
+
+    /**
+     * Stores the manifest attributes and the entries of a scanned jar.
+     */
+    public void put(final File jar, final Attributes attributes, final JarArchive archive) {
+        final Record r = new Record(jar.getAbsolutePath(), jar.length(), jar.lastModified(),
+                                    verify ? archive.checksum() : 0);
+        r.attributes.putAll(attributes);
+        r.entries = archive.getEntries();
+        used.put(r.path, r);
+        changed = true;
+    }
+
+    /**
+     * Removes the record of a jar, whose cached data turned out to be
+     * invalid.
+     */
+    public void remove(final File jar) {
+        final String path = jar.getAbsolutePath();
+        records.remove(path);
+        used.remove(path);
+        changed = true;
+    }
+
+    /**
+     * Writes the records of the jars loaded so far, if any of them has
+     * changed. The file is replaced atomically.
+     */
+    public synchronized void save() {
+        if (!changed && used.keySet().equals(records.keySet())) {
+            return;
+        }
+        final File tmp = new File(file.getPath() + ".tmp");
+        DataOutputStream out = null;
+        try {
+            out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)));
+            out.writeInt(MAGIC);
+            out.writeInt(FORMAT);
+            final Record[] list = used.values().toArray(new Record[0]);
+            out.writeInt(list.length);
+            for (Record r : list) {
+                out.writeUTF(r.path);
+                out.writeLong(r.size);
+                out.writeLong(r.modified);
+                out.writeLong(r.checksum);
+                out.writeInt(r.attributes.size());
+                for (Map.Entry<Object, Object> e : r.attributes.entrySet()) {
+                    out.writeUTF(e.getKey().toString());
+                    out.writeUTF(e.getValue().toString());
+                }
+                JarArchive.writeEntries(r.entries, out);
+            }
+            out.close();
+            out = null;
+            Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                       StandardCopyOption.ATOMIC_MOVE);
+            records.clear();
+            records.putAll(used);
+            changed = false;
+        } catch (IOException ex) {
+            Log.warn(ModuleCache.class, "Cannot write module cache '{}'!",
+                     file.getAbsolutePath(), ex);
+            tmp.delete();
+        } finally { if (out != null) try {out.close();} catch (IOException ex) {}}
+    }
+
+ /* -------------------------------- Record -------------------------------- */
+
+    public static class Record {
+
+        private final String path;
+        private final long size;
+        private final long modified;
+        private final long checksum;
+        private final Attributes attributes = new Attributes();
+        private List<JarArchive.Entry> entries;
+
+        private Record(final String path, final long size, final long modified,
+                       final long checksum) {
+            this.path = path;
+            this.size = size;
+            this.modified = modified;
+            this.checksum = checksum;
+        }
+
+        /**
+         * @return CRC-32 of the jar, 0 if the cache does not verify
+         */
+        public long getChecksum() {
+            return checksum;
+        }
+
+        /**
+         * @return main attributes of the manifest
+         */
+        public Attributes getAttributes() {
+            return attributes;
+        }
+
+        public List<JarArchive.Entry> getEntries() {
+            return entries;
+        }
+
+    }
+
+}
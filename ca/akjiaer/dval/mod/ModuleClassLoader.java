@@ -16,47 +16,206 @@
 
 package ca.akjiaer.dval.mod;
 
-import java.io.ByteArrayInputStream;
 import java.io.InputStream;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.List;
 
 /**
+ * Class loader of a single module. It looks up a class in the module itself
+ * and then in the modules it requires, transitively in breadth-first order.
+ * A module without <code>Module-Requires</code> entry sees the classes of
+ * all modules through the global index instead.
+ * <p>
+ * A class is always defined by the loader of the module which contains it.
+ * The shared loader of {@link Module#getClassLoader()} belongs to no module
+ * and finds every class through the global index.
+ * <p>
+ * The loaders are parallel capable: classes with different names are loaded
+ * concurrently, a lock per name keeps a class from being defined twice.
+ * <p>
+ * A lookup which fails loads the lazy modules in reach and tries again; a
+ * lazy module is opened in the background when the first of its classes is
+ * defined.
+ * Resources are served through the {@link ResourceCache}; their URLs,
+ * see {@link ModuleURLHandler}, stream from the module file instead.
+ * Lookups and definitions are counted in the {@link ModuleMetrics} if
+ * enabled.
+ *
  * @author Stefan Neubert
- * @version 1.0 2011-02-23
+ * @version 2.1 2011-05-11
  * @since 0.10.0
  */
 public class ModuleClassLoader extends ClassLoader {
 
+    static {
+        registerAsParallelCapable();
+    }
+
+    private final Module module;
+
     protected ModuleClassLoader() {
+        this(null);
+    }
+
+    protected ModuleClassLoader(final Module module) {
         super(ClassLoader.getSystemClassLoader());
+        this.module = module;
+    }
+
+    /**
+     * @return owning module, null for the shared loader
+     */
+    public Module getModule() {
+        return module;
     }
 
     @Override
     public Class<?> findClass(String name) throws ClassNotFoundException {
-        for (Module m : Module.modules.values()) {
-            if (m.cache.containsKey(name)) {
-                return m.cache.get(name);
+        Module.Entry e = find(name);
+        if (e == null && Module.activate(module)) {
+            e = find(name);
+        }
+        if (ModuleMetrics.isEnabled()) {
+            count(e);
+        }
+        if (e == null) {
+            throw new ClassNotFoundException(name);
+        }
+        final Class c = e.module.loader.define(name, e);
+        e.module.touch();
+        return c;
+    }
+
+    private Module.Entry find(final String name) {
+        if (module == null) {
+            return Module.index.getClass(name);
+        }
+        Module.Entry e = module.classes.get(name);
+        if (e != null) {
+            return e;
+        }
+        final List<Module> graph = module.graph;
+        if (graph == null) {
+            return Module.index.getClass(name);
+        }
+        for (Module m : graph) {
+            if ((e = m.classes.get(name)) != null) {
+                return e;
             }
         }
-        for (Module m : Module.modules.values()) {
-            if (m.classes.containsKey(name)) {
-                byte[] ba = m.classes.get(name).read();
-                Class c = defineClass(name, ba, 0, ba.length);
-                m.cache.put(name, c);
-                m.classes.remove(name);
-                return c;
-            }  
+        return null;
+    }
+
+    /**
+     * Defines the class of an entry of this loader's module, unless it is
+     * defined already.
+     */
+    private Class define(final String name, final Module.Entry e) {
+        synchronized (getClassLoadingLock(name)) {
+            Class c = findLoadedClass(name);
+            if (c == null) {
+                final boolean timed = ModuleMetrics.isEnabled();
+                final long start = timed ? System.nanoTime() : 0;
+                final ByteBuffer b = e.buffer();
+                final int size = b.remaining();
+                final long read = timed ? System.nanoTime() : 0;
+                c = defineClass(name, b, null);
+                if (timed) {
+                    module.metrics.defined(size, read - start, System.nanoTime() - read);
+                }
+                module.cache.put(name, c);
+                ClassProfile.record(module, name);
+            }
+            return c;
         }
-        throw new ClassNotFoundException(name);
     }
 
     @Override
     public InputStream getResourceAsStream(String name) {
-        for (Module m : Module.modules.values()) {
-            if (m.resources.containsKey(name)) {
-                return new ByteArrayInputStream(m.resources.get(name).read());
+        Module.Entry e = lookup(name);
+        if (e == null && Module.activate(module)) {
+            e = lookup(name);
+        }
+        if (ModuleMetrics.isEnabled()) {
+            count(e);
+        }
+        return e == null ? null : Module.resourceCache.open(e);
+    }
+
+    /**
+     * Counts a lookup for this loader's module, or for the module which
+     * provides the entry if this is the shared loader.
+     */
+    private void count(final Module.Entry e) {
+        if (module != null) {
+            module.metrics.lookup(e != null);
+        } else if (e != null) {
+            e.module.metrics.lookup(true);
+        } else {
+            ModuleMetrics.sharedMiss();
+        }
+    }
+
+    @Override
+    protected URL findResource(String name) {
+        Module.Entry e = lookup(name);
+        if (e == null && Module.activate(module)) {
+            e = lookup(name);
+        }
+        return e == null ? null : ModuleURLHandler.toURL(e.module, name);
+    }
+
+    /**
+     * @return URLs of the resource in all visible modules, in the same
+     *         order as classes
+     */
+    @Override
+    protected Enumeration<URL> findResources(String name) {
+        Module.activate(module);
+        final List<URL> list = new ArrayList();
+        if (module != null && module.getEntry(name) != null) {
+            list.add(ModuleURLHandler.toURL(module, name));
+        }
+        final List<Module> graph = module == null ? null : module.graph;
+        final Collection<Module> others;
+        if (graph == null) {
+            synchronized (Module.modules) {
+                others = new ArrayList(Module.modules.values());
             }
+        } else {
+            others = graph;
         }
-        return null;
+        for (Module m : others) {
+            if (m != module && m.getEntry(name) != null) {
+                list.add(ModuleURLHandler.toURL(m, name));
+            }
+        }
+        return Collections.enumeration(list);
+    }
+
+    /**
+     * @return entry of the resource in the same order as classes
+     */
+    private Module.Entry lookup(final String name) {
+        Module.Entry e = null;
+        if (module == null || (e = module.getEntry(name)) == null) {
+            final List<Module> graph = module == null ? null : module.graph;
+            if (graph == null) {
+                e = Module.index.getEntry(name);
+            } else {
+                for (Module m : graph) {
+                    if ((e = m.getEntry(name)) != null) {
+                        break;
+                    }
+                }
+            }
+        }
+        return e;
     }
 
 }
@@ -0,0 +1,124 @@
+/*
+ * Copyright (c) 2011, Stefan Neubert <akjiaer@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package ca.akjiaer.dval.mod;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Maps every class and resource name to the entry of the module which
+ * provides it, so that a lookup is a single hash probe no matter how many
+ * modules are installed. If several modules provide the same name, the
+ * first registered one wins.
+ *
+ * @author Stefan Neubert
+ * @version 1.0 2011-05-04
+ * @since 0.11.0
+ */
+public class ModuleIndex {
+
+    private final Map<String, Module.Entry> classes = new ConcurrentHashMap(1024);
+    private final Map<String, Module.Entry> resources = new ConcurrentHashMap(256);
+
+    protected ModuleIndex() {
+    }
+
+    /**
+     * @return entry of the class, null if no module provides it
+     */
+    public Module.Entry getClass(final String name) {
+        return classes.get(name);
+    }
+
+    /**
+     * @return entry of the resource, null if no module provides it
+     */
+    public Module.Entry getResource(final String name) {
+        return resources.get(name);
+    }
+
+    /**
+     * @param path resource path, class files as <code>a/b/C.class</code>
+     * @return entry of the path, null if no module provides it
+     */
+    public Module.Entry getEntry(final String path) {
+        final Module.Entry e = resources.get(path);
+        if (e != null || !path.endsWith(".class")) {
+            return e;
+        }
+        return classes.get(path.substring(0, path.length() - 6).replace('/', '.'));
+    }
+
+    /**
+     * Adds the names of the module, which are not provided by another
+     * module yet.
+     */
+    protected void add(final Module m) {
+        for (Map.Entry<String, Module.Entry> e : m.classes.entrySet()) {
+            classes.putIfAbsent(e.getKey(), e.getValue());
+        }
+        for (Map.Entry<String, Module.Entry> e : m.resources.entrySet()) {
+            resources.putIfAbsent(e.getKey(), e.getValue());
+        }
+    }
+
+    /**
+     * Removes the names of the module. Names which are provided by one of
+     * the remaining modules as well point to them afterwards.
+     *
+     * @param remaining registered modules in order of registration
+     */
+    protected void remove(final Module m, final Iterable<Module> remaining) {
+        for (Map.Entry<String, Module.Entry> e : m.classes.entrySet()) {
+            if (classes.remove(e.getKey(), e.getValue())) {
+                for (Module o : remaining) {
+                    final Module.Entry entry = o != m ? o.classes.get(e.getKey()) : null;
+                    if (entry != null) {
+                        classes.putIfAbsent(e.getKey(), entry);
+                        break;
+                    }
+                }
+            }
+        }
+        for (Map.Entry<String, Module.Entry> e : m.resources.entrySet()) {
+            if (resources.remove(e.getKey(), e.getValue())) {
+                for (Module o : remaining) {
+                    final Module.Entry entry = o != m ? o.resources.get(e.getKey()) : null;
+                    if (entry != null) {
+                        resources.putIfAbsent(e.getKey(), entry);
+                        break;
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * @return number of indexed classes
+     */
+    public int getClassCount() {
+        return classes.size();
+    }
+
+    /**
+     * @return number of indexed resources
+     */
+    public int getResourceCount() {
+        return resources.size();
+    }
+
+}
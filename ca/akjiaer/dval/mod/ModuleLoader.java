@@ -16,67 +16,222 @@
 
 package ca.akjiaer.dval.mod;
 
-import ca.akjiaer.dval.util.Config;
 import ca.akjiaer.dval.Log;
 import ca.akjiaer.dval.util.Version;
+import java.io.ByteArrayInputStream;
 import java.io.File;
-import java.io.FileNotFoundException;
+import java.io.FileFilter;
 import java.io.IOException;
-import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.FileSystems;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.PathMatcher;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.jar.Attributes;
 import java.util.jar.JarFile;
 import java.util.jar.Manifest;
+import java.util.zip.ZipException;
 
 /**
+ * Loads the modules of the given files. An entry can be a file, a directory
+ * (all jar files in it) or a glob in the file name, e.g.
+ * <code>modules/*.jar</code>; matches are taken in alphabetical order.
+ * <p>
+ * With more than one thread the files are read and indexed concurrently.
+ * Modules are registered in the order of the entries in any case.
+ * Dependencies (<code>Module-Requires</code>) are resolved after all
+ * modules are registered; a module whose dependencies cannot be resolved
+ * is not opened. With more than one thread, modules which do not depend on
+ * each other are opened concurrently.
+ * <p>
+ * A module with the manifest entry <code>Lazy-Open: true</code> is only
+ * registered; it is loaded when a class or resource is not found
+ * elsewhere, and opened by a background thread when the first of its
+ * classes is defined.
+ * <p>
+ * At runtime a single module can be reloaded from its file or unloaded,
+ * see {@link #reload(String)} and {@link #unload(String)}; reloaded
+ * modules count as registered last.
+ * <p>
+ * With a cache set, see {@link #setCache(File, boolean)}, an unchanged jar
+ * is registered from the cached manifest and index without scanning it.
+ *
  * @author Stefan Neubert
- * @version 1.1 2011-04-14
+ * @version 1.5 2011-05-16
  * @since 0.10.0
  */
 public class ModuleLoader {
 
     private final static int MAGIC_JAR = 0x504B0304;
+    /** Maximum time to wait for the modules to be opened concurrently */
+    private final static long OPEN_TIMEOUT = 60000;
+
+    private static volatile ModuleCache cache;
+    /** Opens lazy modules outside of the class loading locks */
+    private final static ExecutorService opener = Executors.newCachedThreadPool(new Factory());
+    /** Held while modules are unloaded or reloaded, one at a time */
+    private final static Object replacing = new Object();
+
+    /**
+     * Uses a startup cache for the index of the jar files.
+     *
+     * @param file cache file, null to disable the cache
+     * @param verify compare the checksum of the jars as well
+     * @see ModuleCache
+     */
+    public static void setCache(final File file, final boolean verify) {
+        cache = file == null ? null : new ModuleCache(file, verify);
+    }
 
     public static void load(final String... filePaths) {
-        final File[] files = new File[filePaths.length];
-        for (int i = 0; i < filePaths.length; i++) {
-            files[i] = new File(filePaths[i]);
+        load(1, filePaths);
+    }
+
+    /**
+     * @param threads maximum number of files read at the same time
+     */
+    public static void load(final int threads, final String... filePaths) {
+        final List<File> files = new ArrayList();
+        for (String path : filePaths) {
+            expand(path.trim(), files);
+        }
+        new ModuleLoader(files.toArray(new File[files.size()]), threads);
+    }
+
+    /**
+     * Adds the files of a directory or glob entry in alphabetical order,
+     * unless an earlier entry has added them, any other entry as it is.
+     */
+    private static void expand(final String path, final List<File> files) {
+        if (path.isEmpty()) {
+            return;
+        }
+        final File file = new File(path);
+        final FileFilter filter;
+        final File dir;
+        if (file.isDirectory()) {
+            dir = file;
+            filter = new FileFilter() {
+                @Override
+                public boolean accept(File f) {
+                    return f.isFile() && f.getName().endsWith(".jar");
+                }
+            };
+        } else if (isGlob(file.getName())) {
+            dir = file.getParentFile() == null ? new File(".") : file.getParentFile();
+            final PathMatcher matcher = FileSystems.getDefault()
+                                                   .getPathMatcher("glob:" + file.getName());
+            filter = new FileFilter() {
+                @Override
+                public boolean accept(File f) {
+                    return f.isFile() && matcher.matches(f.toPath().getFileName());
+                }
+            };
+        } else {
+            files.add(file);
+            return;
+        }
+        final File[] found = dir.listFiles(filter);
+        if (found == null || found.length == 0) {
+            Log.debug(ModuleLoader.class, "No module found for '{}'!", path);
+            return;
+        }
+        Arrays.sort(found);
+        for (File f : found) {
+            if (!files.contains(f)) {
+                files.add(f);
+            }
+        }
+    }
+
+    private static boolean isGlob(final String name) {
+        for (int i = 0; i < name.length(); i++) {
+            switch (name.charAt(i)) {
+                case '*': case '?': case '[': case '{': return true;
+            }
         }
-        new ModuleLoader(files);
+        return false;
     }
 
  /* ----------------------------- ModuleLoader ----------------------------- */
 
-    private ModuleLoader(final File... files) {
+    private ModuleLoader(final File[] files, final int threads) {
+        ExecutorService pool = null;
+        Future<Module>[] futures = null;
+        if (threads > 1 && files.length > 1) {
+            pool = Executors.newFixedThreadPool(Math.min(threads, files.length),
+                                                new Factory());
+            futures = new Future[files.length];
+            for (int i = 0; i < files.length; i++) {
+                final File f = files[i];
+                futures[i] = pool.submit(new Callable<Module>() {
+                    @Override
+                    public Module call() {
+                        return read(f);
+                    }
+                });
+            }
+            pool.shutdown();
+        }
+
         Module m;
+        final List<Module> registered = new ArrayList(files.length);
+        for (int i = 0; i < files.length; i++) {
+            if (futures == null) {
+                m = read(files[i]);
+            } else {
+                try {
+                    m = futures[i].get();
+                } catch (ExecutionException ex) {
+                    Log.error(ModuleLoader.class, "Cannot load file '{}'!",
+                              files[i].getAbsolutePath(), ex.getCause());
+                    m = null;
+                } catch (InterruptedException ex) {
+                    Thread.currentThread().interrupt();
+                    pool.shutdownNow();
+                    break;
+                }
+            }
+            if (m != null && register(m)) {
+                registered.add(m);
+            }
+        }
+
+        // dependencies are resolved when all modules are known
+        final List<Module> starting = new ArrayList(registered.size());
         int count = 0;
-        for (File f : files) {
-            if ((m = get(f)) != null) {
-                if (Module.modules.containsKey(m.name)) {
-                    Log.error(ModuleLoader.class, "Cannot load module '" +
-                              m.name + "'! Already loaded!");
-                } else {
-                    if (m.load()) {
-                        if (Config.sys.is(Config.MODE_DEBUG)) {
-                            StringBuilder sb = new StringBuilder();
-                            sb.append("Module '");
-                            sb.append(m.name);
-                            sb.append("' ");
-                            if (m.version != null) {
-                                sb.append('(');
-                                sb.append(m.version);
-                                sb.append(") ");
-                            }
-                            sb.append("loaded.");
-                            Log.debug(ModuleLoader.class, sb.toString());
-                        }
-                        Module.modules.put(m.name, m);
-                        m.open();
-                        count++;
+        synchronized (Module.modules) {
+            for (Module r : registered) {
+                if (r.link()) {
+                    if (!r.lazy) {
+                        starting.add(r);
                     }
+                    count++;
                 }
             }
         }
-        if (count < files.length - 1) {
+        ClassProfile.preload();
+        start(starting, threads);
+        if (cache != null) {
+            cache.save();
+        }
+        if (count < files.length) {
             if (count == 0) {
                 Log.fatal(ModuleLoader.class, "No module found! Cannot do anything!");
                 System.exit(1);
@@ -86,35 +241,118 @@ public class ModuleLoader {
         }
     }
 
-    private Module get(final File source) {
+    /**
+     * Adds the module to the registered modules and the index. A rejected
+     * module releases its source.
+     *
+     * @return false, if a module of the same name and version is registered
+     *         already
+     */
+    private static boolean register(final Module m) {
+        synchronized (Module.modules) {
+            if (Module.modules.containsKey(m.key)) {
+                Log.error(ModuleLoader.class, "Cannot load module '{}'! Already loaded!",
+                          m.key);
+                m.release();
+                return false;
+            }
+            if (m.version == null) {
+                Log.debug(ModuleLoader.class, "Module '{}' loaded.", m.name);
+            } else {
+                Log.debug(ModuleLoader.class, "Module '{}' ({}) loaded.", m.name, m.version);
+            }
+            Module.modules.put(m.key, m);
+            if (ModuleMetrics.isEnabled()) {
+                m.metrics.register();
+            }
+            if (m.lazy) {
+                m.defer();
+            } else {
+                Module.index.add(m);
+            }
+            return true;
+        }
+    }
+
+    /**
+     * Reads and indexes the module of the file.
+     *
+     * @return loaded module, null if there is none
+     */
+    private static Module read(final File source) {
+        final Module m = get(source);
+        if (m != null && m.lazy) {
+            return m;
+        }
+        return m != null && m.load() ? m : null;
+    }
+
+    /**
+     * Opens the file once; the format is detected and the module archive
+     * mapped from the same channel.
+     */
+    private static Module get(final File source) {
         if (source.isDirectory()) {
             return null;
         }
-        RandomAccessFile raf = null;
+        FileChannel channel = null;
         try {
-            raf = new RandomAccessFile(source, "r");
-            switch (raf.readInt()) { // 4
-                case MAGIC_JAR: return getJarModule(source);
-                default: Log.error(ModuleLoader.class, "Module '" + source.getName() +
-                                   "' have an unknown or unsupported file format!");
-            }
-        } catch (FileNotFoundException ex) {
-            Log.debug(ModuleLoader.class, "File '" + source.getName() + "' not found!");
+            channel = FileChannel.open(source.toPath(), StandardOpenOption.READ);
+            final ByteBuffer magic = ByteBuffer.allocate(4);
+            while (magic.hasRemaining() && channel.read(magic) >= 0) {}
+            magic.flip();
+            switch (magic.remaining() == 4 ? magic.getInt() : 0) { // 4
+                case MAGIC_JAR: return getJarModule(source, channel);
+                default: Log.error(ModuleLoader.class, "Module '{}' have an unknown or " +
+                                   "unsupported file format!", source.getName());
+            }
+        } catch (NoSuchFileException ex) {
+            Log.debug(ModuleLoader.class, "File '{}' not found!", source.getName());
         } catch (IOException ex) {
-            Log.error(ModuleLoader.class, "Cannot load file '" + source.getAbsolutePath() +
-                      "': Unkonwn IO error!", ex);
-        } finally { if (raf != null) try {raf.close();} catch (IOException ex) {}}
+            Log.error(ModuleLoader.class, "Cannot load file '{}': Unkonwn IO error!",
+                      source.getAbsolutePath(), ex);
+        } finally { if (channel != null) try {channel.close();} catch (IOException ex) {}}
         return null;
     }
 
-    private Module getJarModule(final File source) throws IOException {
-        final Manifest man = new JarFile(source).getManifest();
-        if (man == null) {
-            Log.error(ModuleLoader.class, "Manifest not found! Cannot load jar-module '" +
-                                          source.getName() + "'!");
-            return null;
+    private static Module getJarModule(final File source, final FileChannel channel)
+            throws IOException {
+        final ModuleCache c = cache;
+        JarArchive archive = null;
+        Attributes attr = null;
+        final ModuleCache.Record cached = c == null ? null : c.get(source);
+        if (cached != null) {
+            try {
+                archive = new JarArchive(source, channel, cached.getEntries());
+                if (c.isVerifying() && archive.checksum() != cached.getChecksum()) {
+                    archive.close();
+                    archive = null;
+                }
+            } catch (ZipException ex) {
+                archive = null;
+            }
+            if (archive == null) {
+                Log.debug(ModuleLoader.class, "Cached index of '{}' is invalid!",
+                          source.getName());
+                c.remove(source);
+            } else {
+                attr = cached.getAttributes();
+            }
+        }
+        if (archive == null) {
+            archive = new JarArchive(source, channel);
+            final JarArchive.Entry e = archive.getEntry(JarFile.MANIFEST_NAME);
+            if (e == null) {
+                archive.close();
+                Log.error(ModuleLoader.class, "Manifest not found! Cannot load jar-module '{}'!",
+                          source.getName());
+                return null;
+            }
+            attr = new Manifest(new ByteArrayInputStream(archive.read(e))).getMainAttributes();
+            if (c != null) {
+                c.put(source, attr, archive);
+            }
         }
-        final Attributes attr = man.getMainAttributes();
         String s = attr.getValue("Version");
         Version v = new Version(s == null || s.isEmpty() ? "0.0" : s,
                                 attr.getValue("Version-Name"));
@@ -122,8 +360,348 @@ public class ModuleLoader {
         if (s == null || s.isEmpty()) {
             s = "Unnamed Module";
         }
-        return new JARModule(s, v, attr.getValue("Author"),
-                             attr.getValue("Main-Class"), source);
+        List<ModuleRequirement> requires = null;
+        final String r = attr.getValue("Module-Requires");
+        if (r != null) {
+            try {
+                requires = ModuleRequirement.parseList(r);
+            } catch (IllegalArgumentException ex) {
+                Log.error(ModuleLoader.class, "Invalid Module-Requires of '{}': {}",
+                          source.getName(), ex.getMessage());
+                archive.close();
+                return null;
+            }
+        }
+        final JARModule m = new JARModule(s, v, attr.getValue("Author"),
+                                          attr.getValue("Main-Class"), source, requires,
+                                          archive);
+        m.lazy = "true".equalsIgnoreCase(attr.getValue("Lazy-Open"));
+        return m;
+    }
+
+ /* -------------------------------- Start --------------------------------- */
+
+    /**
+     * Opens a lazy module in the background. Its first class is defined
+     * while class loading locks are held, which the entry point could need
+     * in another order.
+     */
+    protected static void openLater(final Module m) {
+        opener.execute(new Runnable() {
+            @Override
+            public void run() {
+                open(m);
+            }
+        });
+    }
+
+    /**
+     * Opens the module. A failing entry point is logged, so that the other
+     * modules are opened nevertheless.
+     */
+    private static void open(final Module m) {
+        try {
+            m.open();
+        } catch (RuntimeException ex) {
+            Log.error(ModuleLoader.class, "Open \"{}\" failed!", m.name, ex);
+        } catch (LinkageError ex) {
+            Log.error(ModuleLoader.class, "Open \"{}\" failed!", m.name, ex);
+        }
+    }
+
+    /**
+     * Opens the modules in dependency order, see {@link #order(List)}. With
+     * one thread they are opened one after another. Otherwise a module is
+     * opened as soon as the modules it depends on are open, so that
+     * independent modules are opened concurrently. The caller waits at most
+     * <code>OPEN_TIMEOUT</code> for the modules to be opened.
+     */
+    private static void start(final List<Module> list, final int threads) {
+        final List<Module> order = order(list);
+        boolean ordered = true;
+        for (int i = 0; i < order.size() && ordered; i++) {
+            for (int j = i + 1; j < order.size() && ordered; j++) {
+                ordered = !dependsOn(order.get(i), order.get(j), list);
+            }
+        }
+        if (!ordered) {
+            Log.warn(ModuleLoader.class, "Cyclic module dependencies! Modules are opened " +
+                     "one after another.");
+        }
+        if (threads <= 1 || list.size() <= 1 || !ordered) {
+            for (Module m : order) {
+                open(m);
+            }
+            return;
+        }
+        final Map<Module, CountDownLatch> done = new HashMap();
+        for (Module m : list) {
+            done.put(m, new CountDownLatch(1));
+        }
+        final ExecutorService pool = Executors.newFixedThreadPool(Math.min(threads,
+                                                                  list.size()), new Factory());
+        // tasks are queued in dependency order and only wait for tasks
+        // queued before them, which are running or done already
+        for (final Module m : order) {
+            final List<CountDownLatch> before = new ArrayList();
+            for (Module o : list) {
+                if (o != m && dependsOn(m, o, list)) {
+                    before.add(done.get(o));
+                }
+            }
+            pool.execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        for (CountDownLatch l : before) {
+                            l.await();
+                        }
+                        open(m);
+                    } catch (InterruptedException ex) {
+                        Thread.currentThread().interrupt();
+                    } finally {
+                        done.get(m).countDown();
+                    }
+                }
+            });
+        }
+        pool.shutdown();
+        try {
+            if (!pool.awaitTermination(OPEN_TIMEOUT, TimeUnit.MILLISECONDS)) {
+                final List<String> left = new ArrayList();
+                for (Module m : order) {
+                    if (done.get(m).getCount() > 0) {
+                        left.add(m.key);
+                    }
+                }
+                Log.error(ModuleLoader.class, "Modules not opened within {} s: {}",
+                          OPEN_TIMEOUT / 1000, left);
+            }
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            pool.shutdownNow();
+        }
+    }
+
+ /* ------------------------------- Runtime -------------------------------- */
+
+    /**
+     * Closes and unloads the module. Modules which require it are closed
+     * and unloaded as well, modules without <code>Module-Requires</code>
+     * entry are restarted without it.
+     *
+     * @param name <code>name@version</code>, or the name of the highest
+     *             loaded version
+     * @return false, if no module of the name is loaded
+     */
+    public static boolean unload(final String name) {
+        synchronized (replacing) {
+            final Module m = Module.get(name);
+            if (m == null) {
+                Log.warn(ModuleLoader.class, "Cannot unload module '{}'! Not loaded!", name);
+                return false;
+            }
+            replace(m, null);
+            Log.info(ModuleLoader.class, "Module '{}' unloaded.", name);
+            return true;
+        }
+    }
+
+    /**
+     * Reads the module again from its file and replaces the running one.
+     * The modules which depend on it, i.e. require it directly or
+     * transitively or have no <code>Module-Requires</code> entry, are
+     * restarted with it: they are closed before the module, dependents
+     * first, and opened after it, dependencies first. If the file cannot
+     * be read, the running module is kept.
+     *
+     * @param name <code>name@version</code>, or the name of the highest
+     *             loaded version
+     * @return false, if the module is not loaded or its file is invalid
+     */
+    public static boolean reload(final String name) {
+        synchronized (replacing) {
+            final Module m = Module.get(name);
+            if (m == null) {
+                Log.warn(ModuleLoader.class, "Cannot reload module '{}'! Not loaded!", name);
+                return false;
+            }
+            final Module fresh = read(m.source);
+            if (fresh == null) {
+                Log.error(ModuleLoader.class, "Cannot reload module '{}'! Module kept.", name);
+                return false;
+            }
+            if (!fresh.key.equals(m.key) && Module.get(fresh.key) != null) {
+                Log.error(ModuleLoader.class, "Cannot reload module '{}'! Module '{}' is " +
+                          "already loaded!", name, fresh.key);
+                fresh.release();
+                return false;
+            }
+            replace(m, fresh);
+            Log.info(ModuleLoader.class, "Module '{}' reloaded.", name);
+            return true;
+        }
+    }
+
+    /**
+     * Stops the module and its dependents, unregisters them and starts
+     * the replacement together with fresh copies of the dependents. The
+     * caller holds the replacing lock; the lock of the registered modules
+     * is only held to swap the registrations, as the entry points may need
+     * it in other threads while they are closed or opened.
+     *
+     * @param fresh replacement, null to unload the module
+     */
+    private static void replace(final Module old, final Module fresh) {
+        final List<Module> stopping;
+        synchronized (Module.modules) {
+            stopping = dependents(old);
+        }
+        final List<Module> starting = new ArrayList(stopping.size() + 1);
+        if (fresh != null) {
+            starting.add(fresh);
+        }
+        for (Module d : stopping) {
+            // without the module, modules which require it cannot run
+            if (fresh != null || d.requires == null) {
+                final Module r = read(d.source);
+                if (r == null) {
+                    Log.error(ModuleLoader.class, "Cannot restart module '{}'!", d.name);
+                } else {
+                    starting.add(r);
+                }
+            }
+        }
+        stopping.add(0, old);
+
+        final List<Module> order = order(stopping);
+        for (int i = order.size() - 1; i >= 0; i--) {
+            final Module m = order.get(i);
+            try {
+                m.stop();
+            } catch (RuntimeException ex) {
+                Log.error(ModuleLoader.class, "Close \"{}\" failed!", m.name, ex);
+            } catch (LinkageError ex) {
+                Log.error(ModuleLoader.class, "Close \"{}\" failed!", m.name, ex);
+            }
+        }
+        final List<Module> linked = new ArrayList(starting.size());
+        synchronized (Module.modules) {
+            for (Module m : stopping) {
+                Module.modules.remove(m.key);
+            }
+            for (Module m : stopping) {
+                Module.index.remove(m, Module.modules.values());
+            }
+            // the shared loader may still know classes of the old modules
+            Module.classloader = new ModuleClassLoader();
+            for (Module m : starting) {
+                if (register(m)) {
+                    linked.add(m);
+                }
+            }
+            for (Iterator<Module> it = linked.iterator(); it.hasNext();) {
+                if (!it.next().link()) {
+                    it.remove();
+                }
+            }
+        }
+        for (Module m : stopping) {
+            m.release();
+            m.unload();
+        }
+        for (Module m : order(linked)) {
+            if (!m.lazy) {
+                open(m);
+            }
+        }
+        if (cache != null) {
+            cache.save();
+        }
+    }
+
+    /**
+     * @return registered modules which depend on the module, in order of
+     *         registration
+     */
+    private static List<Module> dependents(final Module m) {
+        final List<Module> list = new ArrayList();
+        for (Module o : Module.modules.values()) {
+            final List<Module> graph = o.graph;
+            if (o != m && (graph == null ? o.requires == null : graph.contains(m))) {
+                list.add(o);
+            }
+        }
+        return list;
+    }
+
+    /**
+     * Sorts the modules topologically, so that every module comes after the
+     * modules it depends on, see {@link #dependsOn(Module, Module, List)};
+     * otherwise they keep the order of the list. Modules of a dependency
+     * cycle are appended in the order of the list.
+     *
+     * @param modules modules in order of registration
+     * @return modules in order of opening
+     */
+    private static List<Module> order(final List<Module> modules) {
+        final List<Module> left = new ArrayList(modules);
+        final List<Module> list = new ArrayList(modules.size());
+        boolean progress = true;
+        while (!left.isEmpty() && progress) {
+            progress = false;
+            for (Iterator<Module> it = left.iterator(); it.hasNext();) {
+                final Module m = it.next();
+                boolean ready = true;
+                for (Module o : left) {
+                    if (o != m && dependsOn(m, o, modules)) {
+                        ready = false;
+                        break;
+                    }
+                }
+                if (ready) {
+                    list.add(m);
+                    it.remove();
+                    progress = true;
+                    break;
+                }
+            }
+        }
+        list.addAll(left);
+        return list;
+    }
+
+    /**
+     * A module depends on the modules it requires. A module without
+     * <code>Module-Requires</code> entry depends on the modules registered
+     * before it, except on those which require it.
+     *
+     * @param modules modules in order of registration
+     * @return true, if m has to be opened after o
+     */
+    private static boolean dependsOn(final Module m, final Module o,
+                                     final List<Module> modules) {
+        final List<Module> graph = m.graph;
+        if (graph != null) {
+            return graph.contains(o);
+        }
+        final List<Module> other = o.graph;
+        return modules.indexOf(o) < modules.indexOf(m) && (other == null || !other.contains(m));
+    }
+
+ /* ------------------------------- Factory -------------------------------- */
+
+    private static class Factory implements ThreadFactory {
+
+        private final AtomicInteger count = new AtomicInteger();
+
+        @Override
+        public Thread newThread(Runnable r) {
+            final Thread t = new Thread(r, "Module Loader-" + count.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        }
+
     }
 
 }
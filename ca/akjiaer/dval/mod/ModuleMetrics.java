@@ -0,0 +1,312 @@
+/*
+ * Copyright (c) 2011, Stefan Neubert <akjiaer@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package ca.akjiaer.dval.mod;
+
+import ca.akjiaer.dval.Log;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * Class loading metrics of a module: classes defined, bytes read, lookup
+ * hits and misses, resource cache hits and the time spent reading
+ * (inflating) and defining classes. Metrics are only taken while enabled;
+ * then every module is registered as MBean, see {@link ModuleMetricsMBean}.
+ *
+ * @author Stefan Neubert
+ * @version 1.0 2011-05-12
+ * @since 0.11.0
+ */
+public class ModuleMetrics implements ModuleMetricsMBean {
+
+    private final static String DOMAIN = "ca.akjiaer.dval";
+
+    private static volatile boolean enabled;
+    /** Lookups of the shared class loader, which no module provides */
+    private final static AtomicLong sharedMisses = new AtomicLong();
+
+    public static boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Starts or stops taking metrics and registers or unregisters the
+     * MBeans of the loaded modules.
+     */
+    public static void setEnabled(final boolean b) {
+        synchronized (Module.modules) {
+            if (enabled == b) {
+                return;
+            }
+            enabled = b;
+            for (Module m : Module.modules.values()) {
+                if (b) {
+                    m.metrics.register();
+                } else {
+                    m.metrics.unregister();
+                }
+            }
+        }
+    }
+
+    /**
+     * Writes the metrics of all modules and the resource cache to the log.
+     */
+    public static void dumpAll() {
+        final List<Module> list;
+        synchronized (Module.modules) {
+            list = new ArrayList(Module.modules.values());
+        }
+        for (Module m : list) {
+            m.metrics.dump();
+        }
+        Log.info(ModuleMetrics.class, "Shared class loader: {} misses; {}", sharedMisses,
+                 Module.resourceCache);
+    }
+
+    protected static void sharedMiss() {
+        sharedMisses.incrementAndGet();
+    }
+
+ /* ---------------------------- ModuleMetrics ----------------------------- */
+
+    private final Module module;
+    private volatile ObjectName objectName;
+
+    private volatile long loadTime;
+    private volatile int entries;
+    private final AtomicLong defined = new AtomicLong();
+    private final AtomicLong bytes = new AtomicLong();
+    private final AtomicLong lookupHits = new AtomicLong();
+    private final AtomicLong lookupMisses = new AtomicLong();
+    private final AtomicLong cacheHits = new AtomicLong();
+    private final AtomicLong cacheMisses = new AtomicLong();
+    private final Histogram inflate = new Histogram();
+    private final Histogram define = new Histogram();
+
+    protected ModuleMetrics(final Module module) {
+        this.module = module;
+    }
+
+    protected void loaded(final long nanos, final int entries) {
+        this.loadTime = nanos;
+        this.entries = entries;
+    }
+
+    protected void lookup(final boolean hit) {
+        (hit ? lookupHits : lookupMisses).incrementAndGet();
+    }
+
+    protected void cache(final boolean hit) {
+        (hit ? cacheHits : cacheMisses).incrementAndGet();
+    }
+
+    /**
+     * @param read nanoseconds to get the class file
+     * @param define nanoseconds of defineClass
+     */
+    protected void defined(final int size, final long read, final long define) {
+        defined.incrementAndGet();
+        bytes.addAndGet(size);
+        inflate.record(read);
+        this.define.record(define);
+    }
+
+    protected void read(final int size) {
+        bytes.addAndGet(size);
+    }
+
+    protected void register() {
+        try {
+            final ObjectName n = new ObjectName(DOMAIN + ":type=Module,name="
+                                                + ObjectName.quote(module.key));
+            final MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            if (!server.isRegistered(n)) {
+                server.registerMBean(this, n);
+                objectName = n;
+            }
+        } catch (JMException ex) {
+            Log.warn(ModuleMetrics.class, "Cannot register MBean of module '{}'!",
+                     module.name, ex);
+        }
+    }
+
+    protected void unregister() {
+        final ObjectName n = objectName;
+        if (n != null) {
+            objectName = null;
+            try {
+                ManagementFactory.getPlatformMBeanServer().unregisterMBean(n);
+            } catch (JMException ex) {}
+        }
+    }
+
+ /* ------------------------------- MBean ---------------------------------- */
+
+    @Override
+    public String getModule() {
+        return module.name;
+    }
+
+    @Override
+    public long getLoadTime() {
+        return loadTime / 1000;
+    }
+
+    @Override
+    public int getEntries() {
+        return entries;
+    }
+
+    @Override
+    public long getClassesDefined() {
+        return defined.get();
+    }
+
+    @Override
+    public long getBytesRead() {
+        return bytes.get();
+    }
+
+    @Override
+    public long getLookupHits() {
+        return lookupHits.get();
+    }
+
+    @Override
+    public long getLookupMisses() {
+        return lookupMisses.get();
+    }
+
+    @Override
+    public long getResourceCacheHits() {
+        return cacheHits.get();
+    }
+
+    @Override
+    public long getResourceCacheMisses() {
+        return cacheMisses.get();
+    }
+
+    @Override
+    public long getInflateTime() {
+        return inflate.total() / 1000;
+    }
+
+    @Override
+    public long getInflateTime50() {
+        return inflate.percentile(0.5) / 1000;
+    }
+
+    @Override
+    public long getInflateTime99() {
+        return inflate.percentile(0.99) / 1000;
+    }
+
+    @Override
+    public long getDefineTime() {
+        return define.total() / 1000;
+    }
+
+    @Override
+    public long getDefineTime50() {
+        return define.percentile(0.5) / 1000;
+    }
+
+    @Override
+    public long getDefineTime99() {
+        return define.percentile(0.99) / 1000;
+    }
+
+    @Override
+    public void reset() {
+        defined.set(0);
+        bytes.set(0);
+        lookupHits.set(0);
+        lookupMisses.set(0);
+        cacheHits.set(0);
+        cacheMisses.set(0);
+        inflate.reset();
+        define.reset();
+    }
+
+    @Override
+    public void dump() {
+        Log.info(ModuleMetrics.class, "Module '{}': loaded {} entries in {} us, {} classes "
+                 + "defined, {} bytes read, lookups {} hits / {} misses, resource cache "
+                 + "{} hits / {} misses, inflate {} us (p50 {}, p99 {}), define {} us "
+                 + "(p50 {}, p99 {})", module.name, entries, getLoadTime(), defined, bytes,
+                 lookupHits, lookupMisses, cacheHits, cacheMisses, getInflateTime(),
+                 getInflateTime50(), getInflateTime99(), getDefineTime(), getDefineTime50(),
+                 getDefineTime99());
+    }
+
+ /* ------------------------------ Histogram ------------------------------- */
+
+    /**
+     * Counts nanosecond values in power of two buckets.
+     */
+    private static class Histogram {
+
+        private final AtomicLongArray buckets = new AtomicLongArray(64);
+        private final AtomicLong total = new AtomicLong();
+
+        private void record(final long nanos) {
+            buckets.incrementAndGet(64 - Long.numberOfLeadingZeros(Math.max(nanos, 1)) - 1);
+            total.addAndGet(nanos);
+        }
+
+        private long total() {
+            return total.get();
+        }
+
+        /**
+         * @return upper bound of the bucket of the percentile
+         */
+        private long percentile(final double p) {
+            long count = 0;
+            for (int i = 0; i < 64; i++) {
+                count += buckets.get(i);
+            }
+            if (count == 0) {
+                return 0;
+            }
+            final long rank = (long) Math.ceil(count * p);
+            long n = 0;
+            for (int i = 0; i < 64; i++) {
+                if ((n += buckets.get(i)) >= rank) {
+                    return i >= 62 ? Long.MAX_VALUE : (2L << i) - 1;
+                }
+            }
+            return Long.MAX_VALUE;
+        }
+
+        private void reset() {
+            for (int i = 0; i < 64; i++) {
+                buckets.set(i, 0);
+            }
+            total.set(0);
+        }
+
+    }
+
+}
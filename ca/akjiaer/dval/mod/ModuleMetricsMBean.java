@@ -0,0 +1,68 @@
+/*
+ * Copyright (c) 2011, Stefan Neubert <akjiaer@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package ca.akjiaer.dval.mod;
+
+/**
+ * Class loading metrics of a module, registered as
+ * <code>ca.akjiaer.dval:type=Module,name=&lt;module&gt;@&lt;version&gt;</code>. Times are
+ * given in microseconds, percentiles as upper bounds of power of two
+ * buckets.
+ *
+ * @author Stefan Neubert
+ * @version 1.0 2011-05-12
+ * @since 0.11.0
+ */
+public interface ModuleMetricsMBean {
+
+    public String getModule();
+
+    public long getLoadTime();
+
+    public int getEntries();
+
+    public long getClassesDefined();
+
+    public long getBytesRead();
+
+    public long getLookupHits();
+
+    public long getLookupMisses();
+
+    public long getResourceCacheHits();
+
+    public long getResourceCacheMisses();
+
+    public long getInflateTime();
+
+    public long getInflateTime50();
+
+    public long getInflateTime99();
+
+    public long getDefineTime();
+
+    public long getDefineTime50();
+
+    public long getDefineTime99();
+
+    public void reset();
+
+    /**
+     * Writes the metrics to the log.
+     */
+    public void dump();
+
+}
@@ -0,0 +1,148 @@
+/*
+ * Copyright (c) 2011, Stefan Neubert <akjiaer@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package ca.akjiaer.dval.mod;
+
+import ca.akjiaer.dval.util.Version;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A dependency of a module as declared by the manifest entry
+ * <code>Module-Requires</code>: a list of <code>name[@range]</code>,
+ * separated by commas or whitespace. A range is either a minimum version
+ * (<code>1.2</code>) or an interval with inclusive (<code>[ ]</code>) or
+ * exclusive (<code>( )</code>) bounds, one of which may be empty:
+ * <pre>Module-Requires: core@[1.0,2.0), util@1.2, log</pre>
+ *
+ * @author Stefan Neubert
+ * @version 1.0 2011-05-06
+ * @since 0.11.0
+ */
+public class ModuleRequirement {
+
+    /**
+     * @throws IllegalArgumentException if the list is malformed
+     */
+    public static List<ModuleRequirement> parseList(final String s) {
+        final List<ModuleRequirement> list = new ArrayList();
+        int start = -1;
+        boolean range = false;
+        for (int i = 0; i <= s.length(); i++) {
+            final char ch = i < s.length() ? s.charAt(i) : ',';
+            if (ch == '[' || ch == '(') {
+                range = true;
+            } else if (ch == ']' || ch == ')') {
+                range = false;
+            }
+            if (!range && (ch == ',' || Character.isWhitespace(ch))) {
+                if (start > -1) {
+                    list.add(parse(s.substring(start, i)));
+                    start = -1;
+                }
+            } else if (start < 0) {
+                start = i;
+            }
+        }
+        if (range) {
+            throw new IllegalArgumentException("Unclosed version range in '" + s + "'!");
+        }
+        return list;
+    }
+
+    /**
+     * @param s <code>name[@range]</code>
+     */
+    public static ModuleRequirement parse(final String s) {
+        final int i = s.indexOf('@');
+        final String name = (i < 0 ? s : s.substring(0, i)).trim();
+        if (name.isEmpty()) {
+            throw new IllegalArgumentException("Module name missing in '" + s + "'!");
+        }
+        if (i < 0) {
+            return new ModuleRequirement(name, null, true, null, true);
+        }
+        final String r = s.substring(i + 1).trim();
+        if (r.isEmpty() || r.equals("*")) {
+            return new ModuleRequirement(name, null, true, null, true);
+        }
+        final char first = r.charAt(0);
+        if (first != '[' && first != '(') {
+            return new ModuleRequirement(name, new Version(r, null), true, null, true);
+        }
+        final char last = r.charAt(r.length() - 1);
+        final int comma = r.indexOf(',');
+        if ((last != ']' && last != ')') || comma < 0) {
+            throw new IllegalArgumentException("Invalid version range '" + r + "'!");
+        }
+        final String min = r.substring(1, comma).trim();
+        final String max = r.substring(comma + 1, r.length() - 1).trim();
+        return new ModuleRequirement(name, min.isEmpty() ? null : new Version(min, null),
+                                     first == '[', max.isEmpty() ? null : new Version(max, null),
+                                     last == ']');
+    }
+
+ /* -------------------------- ModuleRequirement --------------------------- */
+
+    private final String name;
+    private final Version min;
+    private final Version max;
+    private final boolean minInclusive;
+    private final boolean maxInclusive;
+
+    public ModuleRequirement(final String name, final Version min, final boolean minInclusive,
+                             final Version max, final boolean maxInclusive) {
+        this.name = name;
+        this.min = min;
+        this.minInclusive = minInclusive;
+        this.max = max;
+        this.maxInclusive = maxInclusive;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * @return true, if the version is within the range
+     */
+    public boolean accepts(final Version v) {
+        if (min != null) {
+            if (v == null || v.isOlderAs(min) || (!minInclusive && v.compareTo(min) == 0)) {
+                return false;
+            }
+        }
+        if (max != null) {
+            if (v == null || v.isNewerAs(max) || (!maxInclusive && v.compareTo(max) == 0)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public String toString() {
+        if (min == null && max == null) {
+            return name;
+        }
+        if (max == null && minInclusive) {
+            return name + '@' + min;
+        }
+        return name + '@' + (minInclusive ? '[' : '(') + (min == null ? "" : min.toString())
+               + ',' + (max == null ? "" : max.toString()) + (maxInclusive ? ']' : ')');
+    }
+
+}
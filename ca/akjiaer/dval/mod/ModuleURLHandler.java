@@ -0,0 +1,179 @@
+/*
+ * Copyright (c) 2011, Stefan Neubert <akjiaer@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package ca.akjiaer.dval.mod;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UnsupportedEncodingException;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.net.URLConnection;
+import java.net.URLDecoder;
+import java.net.URLEncoder;
+import java.net.URLStreamHandler;
+
+/**
+ * Handler of the URLs of module resources:
+ * <pre>dval:/&lt;module&gt;@&lt;version&gt;!/&lt;path&gt;</pre>
+ * The module is looked up when the URL is opened; if its version is not
+ * loaded anymore, the highest loaded version of the name is taken, so a URL
+ * refers to the resource of a reloaded module as well. The content is streamed
+ * from the module file and never read at once.
+ * <p>
+ * The handler is not registered globally; URLs parsed from their string
+ * form need {@link #getHandler()} as stream handler.
+ *
+ * @author Stefan Neubert
+ * @version 1.1 2011-05-16
+ * @since 0.11.0
+ */
+public class ModuleURLHandler extends URLStreamHandler {
+
+    public final static String PROTOCOL = "dval";
+
+    private final static ModuleURLHandler handler = new ModuleURLHandler();
+    private final static char[] HEX = "0123456789ABCDEF".toCharArray();
+
+    public static URLStreamHandler getHandler() {
+        return handler;
+    }
+
+    /**
+     * @return URL of the resource of the module
+     */
+    protected static URL toURL(final Module m, final String path) {
+        try {
+            return new URL(PROTOCOL, null, -1, '/' + URLEncoder.encode(m.key, "UTF-8")
+                           + "!/" + encode(path), handler);
+        } catch (MalformedURLException ex) {
+            throw new IllegalArgumentException("Invalid resource path '" + path + "'!", ex);
+        } catch (UnsupportedEncodingException ex) {
+            throw new IllegalStateException(ex);
+        }
+    }
+
+    /**
+     * Percent-encodes the path except for unreserved characters and
+     * <code>/</code>, so that e.g. <code>?</code>, <code>#</code> and
+     * <code>%</code> are kept as part of the name.
+     */
+    private static String encode(final String path) throws UnsupportedEncodingException {
+        final StringBuilder sb = new StringBuilder(path.length() + 16);
+        for (byte b : path.getBytes("UTF-8")) {
+            final char c = (char) (b & 0xFF);
+            if ((c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || (c >= '0' && c <= '9')
+                    || c == '/' || c == '.' || c == '-' || c == '_' || c == '~') {
+                sb.append(c);
+            } else {
+                sb.append('%').append(HEX[c >> 4]).append(HEX[c & 0xF]);
+            }
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Reverses {@link #encode(String)}; a plain <code>+</code> is kept.
+     */
+    private static String decode(final String path) throws UnsupportedEncodingException {
+        return URLDecoder.decode(path.replace("+", "%2B"), "UTF-8");
+    }
+
+    /**
+     * @return entry of the URL, null if the module or the resource is not
+     *         loaded
+     */
+    private static Module.Entry resolve(final URL url) throws IOException {
+        final String file = url.getPath();
+        final int i = file.indexOf("!/");
+        if (!file.startsWith("/") || i < 0) {
+            throw new MalformedURLException("Invalid module URL '" + url + "'!");
+        }
+        final String key, path;
+        try {
+            key = URLDecoder.decode(file.substring(1, i), "UTF-8");
+            path = decode(file.substring(i + 2));
+        } catch (IllegalArgumentException ex) {
+            throw new MalformedURLException("Invalid module URL '" + url + "'!");
+        }
+        Module m = Module.get(key);
+        final int v = key.lastIndexOf('@');
+        if (m == null && v > 0) {
+            m = Module.get(key.substring(0, v));
+        }
+        return m == null ? null : m.getEntry(path);
+    }
+
+ /* --------------------------- ModuleURLHandler --------------------------- */
+
+    private ModuleURLHandler() {
+    }
+
+    @Override
+    protected URLConnection openConnection(final URL u) throws IOException {
+        if (!PROTOCOL.equals(u.getProtocol())) {
+            throw new MalformedURLException("Unknown protocol '" + u.getProtocol() + "'!");
+        }
+        return new Connection(u);
+    }
+
+ /* ------------------------------ Connection ------------------------------ */
+
+    private static class Connection extends URLConnection {
+
+        private Module.Entry entry;
+
+        private Connection(final URL url) {
+            super(url);
+        }
+
+        @Override
+        public void connect() throws IOException {
+            if (!connected) {
+                entry = resolve(url);
+                if (entry == null) {
+                    throw new FileNotFoundException(url.toString());
+                }
+                connected = true;
+            }
+        }
+
+        @Override
+        public InputStream getInputStream() throws IOException {
+            connect();
+            return entry.open();
+        }
+
+        @Override
+        public int getContentLength() {
+            try {
+                connect();
+            } catch (IOException ex) {
+                return -1;
+            }
+            return entry.size();
+        }
+
+        @Override
+        public String getContentType() {
+            final String type = guessContentTypeFromName(url.getPath());
+            return type == null ? "content/unknown" : type;
+        }
+
+    }
+
+}
@@ -0,0 +1,166 @@
+/*
+ * Copyright (c) 2011, Stefan Neubert <akjiaer@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package ca.akjiaer.dval.mod;
+
+import ca.akjiaer.dval.Log;
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Watches the files of the registered modules and reloads a module when its
+ * file has changed, or unloads it when the file is deleted. Changes are
+ * applied when no further change was seen for half a second, so that a
+ * file is not read while it is still being written.
+ * <p>
+ * A module file is mapped into memory while the module is loaded; replace
+ * it by moving the new file in place instead of overwriting it.
+ *
+ * @author Stefan Neubert
+ * @version 1.0 2011-05-07
+ * @since 0.11.0
+ */
+public class ModuleWatcher implements Runnable {
+
+    /** Milliseconds without changes before they are applied */
+    private final static long QUIET = 500;
+
+    private static ModuleWatcher watcher;
+
+    /**
+     * Starts watching the directories of all registered modules.
+     */
+    public static synchronized void start() {
+        if (watcher != null) {
+            return;
+        }
+        try {
+            watcher = new ModuleWatcher();
+        } catch (IOException ex) {
+            Log.error(ModuleWatcher.class, "Cannot watch module files!", ex);
+            return;
+        }
+        final Thread t = new Thread(watcher, "Module Watcher");
+        t.setDaemon(true);
+        t.start();
+    }
+
+    public static synchronized void stop() {
+        if (watcher != null) {
+            try {
+                watcher.service.close();
+            } catch (IOException ex) {}
+            watcher = null;
+        }
+    }
+
+ /* ---------------------------- ModuleWatcher ----------------------------- */
+
+    private final WatchService service;
+    private final Set<Path> dirs = new HashSet();
+
+    private ModuleWatcher() throws IOException {
+        service = FileSystems.getDefault().newWatchService();
+        register();
+    }
+
+    /**
+     * Registers the directories of the modules, which are not watched yet.
+     */
+    private void register() throws IOException {
+        synchronized (Module.modules) {
+            for (Module m : Module.modules.values()) {
+                final Path dir = m.source.getAbsoluteFile().toPath().getParent();
+                if (dir != null && dirs.add(dir)) {
+                    dir.register(service, StandardWatchEventKinds.ENTRY_CREATE,
+                                 StandardWatchEventKinds.ENTRY_MODIFY,
+                                 StandardWatchEventKinds.ENTRY_DELETE);
+                }
+            }
+        }
+    }
+
+    @Override
+    public void run() {
+        final Set<Path> changed = new LinkedHashSet();
+        while (true) {
+            final WatchKey key;
+            try {
+                key = changed.isEmpty() ? service.take()
+                                        : service.poll(QUIET, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException ex) {
+                break;
+            } catch (ClosedWatchServiceException ex) {
+                break;
+            }
+            if (key == null) {
+                apply(changed);
+                changed.clear();
+                continue;
+            }
+            final Path dir = (Path) key.watchable();
+            for (WatchEvent<?> e : key.pollEvents()) {
+                if (e.kind() != StandardWatchEventKinds.OVERFLOW) {
+                    changed.add(dir.resolve((Path) e.context()));
+                }
+            }
+            key.reset();
+        }
+    }
+
+    private void apply(final Set<Path> changed) {
+        for (Path p : changed) {
+            final String name = find(p);
+            if (name == null) {
+                continue;
+            }
+            if (Files.isRegularFile(p)) {
+                Log.info(ModuleWatcher.class, "File of module '{}' changed.", name);
+                ModuleLoader.reload(name);
+            } else {
+                Log.info(ModuleWatcher.class, "File of module '{}' deleted.", name);
+                ModuleLoader.unload(name);
+            }
+        }
+    }
+
+    /**
+     * @return name of the registered module of the file, null if there is
+     *         none
+     */
+    private String find(final Path file) {
+        synchronized (Module.modules) {
+            for (Module m : Module.modules.values()) {
+                if (m.source.getAbsoluteFile().toPath().equals(file)) {
+                    return m.key;
+                }
+            }
+        }
+        return null;
+    }
+
+}
@@ -0,0 +1,203 @@
+/*
+ * Copyright (c) 2011, Stefan Neubert <akjiaer@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package ca.akjiaer.dval.mod;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Content of module resources, which are read again and again, e.g. icons
+ * or property files. The least recently used resources are evicted when
+ * the cached bytes exceed the budget. Resources larger than the threshold
+ * are not cached, but streamed from the module file.
+ *
+ * @author Stefan Neubert
+ * @version 1.1 2011-05-16
+ * @since 0.11.0
+ */
+public class ResourceCache {
+
+    private final long budget;
+    private final int threshold;
+    /** Content per entry in order of access, guarded by itself */
+    private final LinkedHashMap<Module.Entry, byte[]> map =
+            new LinkedHashMap(64, 0.75f, true);
+    /** Cached bytes per module, guarded by map */
+    private final Map<Module, long[]> usage = new HashMap();
+    private long bytes;
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong bypassed = new AtomicLong();
+    private final AtomicLong evicted = new AtomicLong();
+
+    /**
+     * @param budget maximum number of cached bytes, 0 disables caching
+     * @param threshold maximum size of a cached resource in bytes
+     */
+    public ResourceCache(final long budget, final int threshold) {
+        if (budget < 0 || threshold < 0) {
+            throw new IllegalArgumentException("Budget and threshold must not be negative!");
+        }
+        this.budget = budget;
+        this.threshold = threshold;
+    }
+
+    /**
+     * @return stream of the content of the entry
+     */
+    public InputStream open(final Module.Entry e) {
+        final int size = e.size();
+        if (budget == 0 || size > threshold) {
+            bypassed.incrementAndGet();
+            return e.open();
+        }
+        byte[] b;
+        synchronized (map) {
+            b = map.get(e);
+        }
+        if (ModuleMetrics.isEnabled()) {
+            e.module.metrics.cache(b != null);
+        }
+        if (b != null) {
+            hits.incrementAndGet();
+            return new ByteArrayInputStream(b);
+        }
+        misses.incrementAndGet();
+        b = e.read();
+        if (ModuleMetrics.isEnabled()) {
+            e.module.metrics.read(b.length);
+        }
+        if (b.length <= threshold && b.length <= budget) {
+            put(e, b);
+        }
+        return new ByteArrayInputStream(b);
+    }
+
+    /**
+     * Caches the content. The module is checked under the lock, after an
+     * unload has cleared its flag and before it removes its resources, see
+     * {@link #remove(Module)}, so no entry of an unloaded module is left.
+     */
+    private void put(final Module.Entry e, final byte[] b) {
+        synchronized (map) {
+            if (map.containsKey(e) || !e.module.loaded) {
+                return; // cached by another thread or module unloaded
+            }
+            map.put(e, b);
+            bytes += b.length;
+            account(e.module, b.length);
+            final Iterator<Map.Entry<Module.Entry, byte[]>> it = map.entrySet().iterator();
+            while (bytes > budget && it.hasNext()) {
+                final Map.Entry<Module.Entry, byte[]> eldest = it.next();
+                it.remove();
+                bytes -= eldest.getValue().length;
+                account(eldest.getKey().module, -eldest.getValue().length);
+                evicted.incrementAndGet();
+            }
+        }
+    }
+
+    private void account(final Module m, final long n) {
+        long[] u = usage.get(m);
+        if (u == null) {
+            usage.put(m, u = new long[1]);
+        }
+        if ((u[0] += n) <= 0) {
+            usage.remove(m);
+        }
+    }
+
+    /**
+     * Drops the resources of an unloaded module. The module must be marked
+     * as not loaded before, so that it is not cached again.
+     */
+    protected void remove(final Module m) {
+        synchronized (map) {
+            if (usage.remove(m) == null) {
+                return;
+            }
+            final Iterator<Map.Entry<Module.Entry, byte[]>> it = map.entrySet().iterator();
+            while (it.hasNext()) {
+                final Map.Entry<Module.Entry, byte[]> e = it.next();
+                if (e.getKey().module == m) {
+                    bytes -= e.getValue().length;
+                    it.remove();
+                }
+            }
+        }
+    }
+
+    /**
+     * @return cached bytes of all modules
+     */
+    public long getBytes() {
+        synchronized (map) {
+            return bytes;
+        }
+    }
+
+    /**
+     * @return cached bytes of the module
+     */
+    public long getBytes(final Module m) {
+        synchronized (map) {
+            final long[] u = usage.get(m);
+            return u == null ? 0 : u[0];
+        }
+    }
+
+    public long getBudget() {
+        return budget;
+    }
+
+    public int getThreshold() {
+        return threshold;
+    }
+
+    public long getHits() {
+        return hits.get();
+    }
+
+    public long getMisses() {
+        return misses.get();
+    }
+
+    /**
+     * @return number of resources streamed without caching
+     */
+    public long getBypassed() {
+        return bypassed.get();
+    }
+
+    public long getEvicted() {
+        return evicted.get();
+    }
+
+    @Override
+    public String toString() {
+        return "Resource cache: " + getBytes() + " of " + budget + " bytes, " + hits
+               + " hits, " + misses + " misses, " + bypassed + " bypassed, " + evicted
+               + " evicted";
+    }
+
+}
@@ -40,10 +40,14 @@ public class Config extends StringMap {
 
     public final static String MODULES = "modules";
 
+    public final static String LOG_LEVEL = "log.level";
+
     public final static String MODE_TRACE = "mode.trace";
     public final static String MODE_DEBUG = "mode.debug";
     public final static String MODE_EXPERIMENTAL = "mode.experimental";
     public final static String MODE_UPDATE = "mode.update";
+    public final static String MODE_TRAINING = "mode.training";
+    public final static String MODE_PRELOAD = "mode.preload";
 
     public final static Config sys = new Config();
 
@@ -91,7 +95,7 @@ public class Config extends StringMap {
             load0(new FileInputStream(f));
             return true;
         } catch (FileNotFoundException ex) {
-            Log.warn(Config.class, "File '" + f.getName() + "' not found!");
+            Log.warn(Config.class, "File '{}' not found!", f.getName());
         }
         return false;
     }
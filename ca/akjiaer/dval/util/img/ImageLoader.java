@@ -64,8 +64,8 @@ public class ImageLoader {
             throw new IOException();
         } catch (IOException ex) {
             if (!suppress) {
-                Log.error(ImageLoader.class, "[" + name + "] Could not load image '"
-                                            + imagename + "'! (" + name + ")", ex);
+                Log.error(ImageLoader.class, "[{}] Could not load image '{}'! ({})",
+                          name, imagename, name, ex);
             }
         } finally { if (is != null) try { is.close(); } catch (IOException ex) {}}
         return null;
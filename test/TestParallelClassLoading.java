@@ -0,0 +1,168 @@
+/*
+ * Copyright (c) 2011, Stefan Neubert <akjiaer@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package test;
+
+import ca.akjiaer.dval.mod.Module;
+import ca.akjiaer.dval.mod.ModuleLoader;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.jar.Attributes;
+import java.util.jar.JarOutputStream;
+import java.util.jar.Manifest;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+
+/**
+ * Loads thousands of generated classes of a module with many threads at
+ * once. Every thread must get the same class object for a name and no
+ * LinkageError (duplicate class definition) may occur.
+ *
+ * @author Stefan Neubert
+ */
+public class TestParallelClassLoading {
+
+    private final static int CLASSES = 4000;
+    private final static int THREADS = 16;
+
+    public static void main(String[] args) throws Exception {
+        final File jar = File.createTempFile("parallel", ".jar");
+        jar.deleteOnExit();
+        writeJar(jar);
+        ModuleLoader.load(jar.getPath());
+
+        final ClassLoader loader = Module.getClassLoader();
+        final ConcurrentHashMap<String, Class> loaded = new ConcurrentHashMap();
+        final AtomicInteger duplicates = new AtomicInteger();
+        final AtomicInteger errors = new AtomicInteger();
+        final CountDownLatch start = new CountDownLatch(1);
+        final Thread[] threads = new Thread[THREADS];
+        for (int t = 0; t < THREADS; t++) {
+            final List<String> names = new ArrayList(CLASSES);
+            for (int i = 0; i < CLASSES; i++) {
+                names.add(name(i));
+            }
+            Collections.shuffle(names, new Random(t));
+            threads[t] = new Thread("Loader-" + t) {
+                @Override
+                public void run() {
+                    try {
+                        start.await();
+                        for (String name : names) {
+                            final Class c = Class.forName(name, false, loader);
+                            final Class old = loaded.putIfAbsent(name, c);
+                            if (old != null && old != c) {
+                                duplicates.incrementAndGet();
+                            }
+                        }
+                    } catch (LinkageError ex) {
+                        errors.incrementAndGet();
+                        ex.printStackTrace();
+                    } catch (Exception ex) {
+                        errors.incrementAndGet();
+                        ex.printStackTrace();
+                    }
+                }
+            };
+            threads[t].start();
+        }
+        final long time = System.nanoTime();
+        start.countDown();
+        for (Thread t : threads) {
+            t.join();
+        }
+        System.out.println(loaded.size() + " classes loaded by " + THREADS + " threads in "
+                           + (System.nanoTime() - time) / 1000000 + " ms, "
+                           + duplicates + " duplicates, " + errors + " errors");
+        System.exit(loaded.size() == CLASSES && duplicates.get() == 0 && errors.get() == 0
+                    ? 0 : 1);
+    }
+
+    private static String name(final int i) {
+        return "gen.p" + (i % 10) + ".C" + i;
+    }
+
+    /**
+     * Writes a library module with empty classes, half of them stored and
+     * half of them deflated.
+     */
+    private static void writeJar(final File file) throws IOException {
+        final Manifest man = new Manifest();
+        man.getMainAttributes().put(Attributes.Name.MANIFEST_VERSION, "1.0");
+        man.getMainAttributes().putValue("Name", "Parallel Test");
+        final JarOutputStream out = new JarOutputStream(new FileOutputStream(file), man);
+        try {
+            for (int i = 0; i < CLASSES; i++) {
+                final String name = name(i);
+                final byte[] b = classFile(name.replace('.', '/'));
+                final ZipEntry e = new ZipEntry(name.replace('.', '/') + ".class");
+                if (i % 2 == 0) {
+                    final CRC32 crc = new CRC32();
+                    crc.update(b);
+                    e.setMethod(ZipEntry.STORED);
+                    e.setSize(b.length);
+                    e.setCompressedSize(b.length);
+                    e.setCrc(crc.getValue());
+                }
+                out.putNextEntry(e);
+                out.write(b);
+                out.closeEntry();
+            }
+        } finally {
+            out.close();
+        }
+    }
+
+    /**
+     * @return class file of an empty public class extending Object
+     */
+    private static byte[] classFile(final String name) throws IOException {
+        final ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        final DataOutputStream out = new DataOutputStream(bos);
+        out.writeInt(0xCAFEBABE);
+        out.writeShort(0);      // minor version
+        out.writeShort(49);     // major version, Java 5
+        out.writeShort(5);      // constant pool count
+        out.writeByte(1);       // #1 Utf8 name
+        out.writeUTF(name);
+        out.writeByte(7);       // #2 Class #1
+        out.writeShort(1);
+        out.writeByte(1);       // #3 Utf8 super name
+        out.writeUTF("java/lang/Object");
+        out.writeByte(7);       // #4 Class #3
+        out.writeShort(3);
+        out.writeShort(0x0021); // public super
+        out.writeShort(2);      // this
+        out.writeShort(4);      // super
+        out.writeShort(0);      // interfaces
+        out.writeShort(0);      // fields
+        out.writeShort(0);      // methods
+        out.writeShort(0);      // attributes
+        out.flush();
+        return bos.toByteArray();
+    }
+
+}